@@ -0,0 +1,262 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.Tag;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.persistence.PersistentDataContainer;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+/**
+ * Lightweight fakes of the server objects that the benchmarked code touches.
+ * They are plain proxies that only answer the methods that are actually called,
+ * everything else returns the default value of the return type.
+ */
+final class Fakes {
+    private static final Map<Class<?>, Object> DEFAULTS = new HashMap<>();
+    static {
+        DEFAULTS.put(boolean.class, false);
+        DEFAULTS.put(byte.class, (byte) 0);
+        DEFAULTS.put(short.class, (short) 0);
+        DEFAULTS.put(char.class, (char) 0);
+        DEFAULTS.put(int.class, 0);
+        DEFAULTS.put(long.class, 0L);
+        DEFAULTS.put(float.class, 0f);
+        DEFAULTS.put(double.class, 0d);
+    }
+
+    private Fakes() {}
+
+    /**
+     * Install a fake server so that static Bukkit lookups (e.g. {@link Tag#SIGNS}) work
+     */
+    static synchronized void installServer() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        Logger logger = Logger.getLogger("Benchmark");
+        Set<Material> signs = EnumSet.noneOf(Material.class);
+        for (Material material : Material.values()) {
+            if (!material.isLegacy() && material.name().endsWith("_SIGN")) {
+                signs.add(material);
+            }
+        }
+        Bukkit.setServer(fake(Server.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return logger;
+                case "getName":
+                    return "Benchmark";
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "1.16.5-R0.1-SNAPSHOT";
+                case "getTag":
+                    return tag((NamespacedKey) args[1], "signs".equals(((NamespacedKey) args[1]).getKey()) ? signs : Collections.emptySet());
+            }
+            return null;
+        }));
+        PlotSigns.SIGN_REGION_KEY = new NamespacedKey("plotsigns", "region");
+    }
+
+    /**
+     * Load the plugin's default config.yml into a settings snapshot
+     * @return The settings
+     */
+    static Settings settings() {
+        YamlConfiguration config = new YamlConfiguration();
+        try (InputStream in = PlotSigns.class.getClassLoader().getResourceAsStream("config.yml")) {
+            config.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to load the default config", e);
+        }
+        return new Settings(config, Logger.getLogger("Benchmark"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Tag<Material> tag(NamespacedKey key, Set<Material> values) {
+        return fake(Tag.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getKey":
+                    return key;
+                case "getValues":
+                    return values;
+                case "isTagged":
+                    return values.contains(args[0]);
+            }
+            return null;
+        });
+    }
+
+    static Player player(UUID uuid, String name, Set<String> permissions) {
+        return fake(Player.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId":
+                    return uuid;
+                case "getName":
+                    return name;
+                case "hasPermission":
+                    return args[0] instanceof String && permissions.contains(args[0]);
+            }
+            return null;
+        });
+    }
+
+    static World world(String name) {
+        return fake(World.class, (proxy, method, args) -> {
+            if ("getName".equals(method.getName())) {
+                return name;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Create a block which creates a new state snapshot on every {@link Block#getState()} call like the server does
+     * @param world     The world of the block
+     * @param material  The type of the block
+     * @return The block
+     */
+    static Block block(World world, Material material, int x, int y, int z) {
+        return fake(Block.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return world;
+                case "getType":
+                    return material;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getState":
+                    return fake(BlockState.class, (p, m, a) -> "getBlock".equals(m.getName()) ? proxy : null);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Create a sign state
+     * @param block     The block of the sign
+     * @param regionId  The region that the sign is bound to or null if it isn't bound
+     * @return The sign
+     */
+    static Sign sign(Block block, String regionId) {
+        PersistentDataContainer data = fake(PersistentDataContainer.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "get":
+                    return PlotSigns.SIGN_REGION_KEY.equals(args[0]) ? regionId : null;
+                case "has":
+                    return regionId != null && PlotSigns.SIGN_REGION_KEY.equals(args[0]);
+            }
+            return null;
+        });
+        String[] lines = new String[4];
+        return fake(Sign.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getBlock":
+                    return block;
+                case "getPersistentDataContainer":
+                    return data;
+                case "getLine":
+                    return lines[(int) args[0]];
+                case "setLine":
+                    lines[(int) args[0]] = (String) args[1];
+                    return null;
+                case "update":
+                    return true;
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Create a non-sign tile entity like a chest or furnace
+     * @param block The block of the tile entity
+     * @return The state
+     */
+    static BlockState tileEntity(Block block) {
+        return fake(BlockState.class, (proxy, method, args) -> "getBlock".equals(method.getName()) ? block : null);
+    }
+
+    static Chunk chunk(World world, int x, int z, BlockState[] tileEntities) {
+        return fake(Chunk.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getZ":
+                    return z;
+                case "getTileEntities":
+                    return tileEntities;
+                case "isLoaded":
+                    return true;
+            }
+            return null;
+        });
+    }
+
+    private static <T> T fake(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return "Fake" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                    }
+                    break;
+            }
+            Object result = handler.invoke(proxy, method, args);
+            return result != null ? result : DEFAULTS.get(method.getReturnType());
+        }));
+    }
+}
@@ -0,0 +1,87 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.Sign;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Right clicks on blocks that aren't signs, by far the most common interaction the listener sees
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignInteractBenchmark {
+
+    @Param({"STONE", "CHEST"})
+    public Material material;
+
+    private SignListener listener;
+    private PlayerInteractEvent event;
+
+    @Setup
+    public void setup() {
+        Fakes.installServer();
+        // The plugin is only used after a click on a sign
+        listener = new SignListener(null);
+        World world = Fakes.world("world");
+        Block block = Fakes.block(world, material, 0, 64, 0);
+        event = new PlayerInteractEvent(Fakes.player(UUID.randomUUID(), "Player", Collections.emptySet()),
+                Action.RIGHT_CLICK_BLOCK, null, block, BlockFace.NORTH, EquipmentSlot.HAND);
+    }
+
+    @Benchmark
+    public PlayerInteractEvent filter() {
+        listener.onSignInteract(event);
+        return event;
+    }
+
+    /**
+     * How the listener checked for signs before looking at the material first
+     */
+    @Benchmark
+    public boolean stateFirst() {
+        return event.getClickedBlock().getState() instanceof Sign;
+    }
+}
@@ -0,0 +1,83 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.ChatColor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of the sign lines and lang messages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignLinesBenchmark {
+
+    private Settings settings;
+    private String coloredSellLine;
+    private String otherLine;
+
+    @Setup
+    public void setup() {
+        Fakes.installServer();
+        settings = Fakes.settings();
+        coloredSellLine = ChatColor.DARK_BLUE + settings.getSellLine().toLowerCase();
+        otherLine = ChatColor.DARK_BLUE + "[Private]";
+    }
+
+    @Benchmark
+    public String[] sellLines() {
+        return settings.getSellLines("plot123", 1500.0, "small");
+    }
+
+    @Benchmark
+    public String[] soldLines() {
+        return settings.getSoldLines("plot123", "Phoenix616");
+    }
+
+    @Benchmark
+    public String lang() {
+        return settings.getLang("buy.bought-plot").render("region", "plot123", "price", "1500.0");
+    }
+
+    @Benchmark
+    public boolean sellLineMatch() {
+        return settings.isSellLine(coloredSellLine);
+    }
+
+    @Benchmark
+    public boolean sellLineMismatch() {
+        return settings.isSellLine(otherLine);
+    }
+}
@@ -0,0 +1,152 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updating the signs of a region after it was sold, once with a registry that already
+ * knows the signs and once with the chunk scan for signs created before the registry existed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignUpdateBenchmark {
+    private static final String WORLD = "world";
+    private static final String REGION = "plot";
+
+    /**
+     * The length of the region's sides in blocks
+     */
+    @Param({"16", "64", "256"})
+    public int size;
+
+    /**
+     * The amount of tile entities in each chunk, one of them is a sign of the region
+     */
+    @Param({"4", "32"})
+    public int tileEntities;
+
+    private ProtectedRegion region;
+    private String[] lines;
+    private Map<Long, Chunk> chunks;
+    private Map<SignLocation, Sign> signs;
+    private SignRegistry registry;
+
+    @Setup
+    public void setup() {
+        Fakes.installServer();
+        Settings settings = Fakes.settings();
+        World world = Fakes.world(WORLD);
+        region = new ProtectedCuboidRegion(REGION, BlockVector3.at(0, 0, 0), BlockVector3.at(size - 1, 255, size - 1));
+        lines = settings.getSoldLines(REGION, "Phoenix616");
+
+        Set<Long> keys = new HashSet<>();
+        PlotSigns.addChunkKeys(region, keys);
+        chunks = new HashMap<>();
+        signs = new HashMap<>();
+        for (long key : keys) {
+            int chunkX = (int) (key >> 32);
+            int chunkZ = (int) key;
+            BlockState[] states = new BlockState[tileEntities];
+            for (int i = 0; i < states.length; i++) {
+                Block block = Fakes.block(world, i == 0 ? Material.OAK_SIGN : Material.CHEST, chunkX * 16 + i % 16, 64 + i / 16, chunkZ * 16);
+                if (i == 0) {
+                    Sign sign = Fakes.sign(block, REGION);
+                    signs.put(new SignLocation(block), sign);
+                    states[i] = sign;
+                } else {
+                    states[i] = Fakes.tileEntity(block);
+                }
+            }
+            chunks.put(key, Fakes.chunk(world, chunkX, chunkZ, states));
+        }
+
+        registry = newRegistry();
+        for (Chunk chunk : chunks.values()) {
+            PlotSigns.scanChunk(chunk, registry);
+        }
+    }
+
+    private static SignRegistry newRegistry() {
+        // The registry is never saved
+        return new SignRegistry(null, new File("signs.yml"));
+    }
+
+    @Benchmark
+    public int registered() {
+        return writeSigns(registry);
+    }
+
+    @Benchmark
+    public int scan() {
+        SignRegistry registry = newRegistry();
+        Set<Long> keys = new HashSet<>();
+        PlotSigns.addChunkKeys(region, keys);
+        for (long key : keys) {
+            PlotSigns.scanChunk(chunks.get(key), registry);
+        }
+        return writeSigns(registry);
+    }
+
+    private int writeSigns(SignRegistry registry) {
+        int written = 0;
+        for (SignLocation location : registry.getSigns(WORLD, REGION)) {
+            Sign sign = signs.get(location);
+            if (sign != null && REGION.equals(PlotSigns.getSignRegion(sign))) {
+                for (int i = 0; i < lines.length; i++) {
+                    sign.setLine(i, lines[i]);
+                }
+                sign.update();
+                written++;
+            }
+        }
+        return written;
+    }
+}
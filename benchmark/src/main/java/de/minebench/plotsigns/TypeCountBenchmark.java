@@ -0,0 +1,145 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The type count check of a purchase with the index compared to scanning all regions of the world
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TypeCountBenchmark {
+    private static final String WORLD = "world";
+    private static final String[] TYPES = {"small", "medium", "large", "shop"};
+
+    @Param({"1000", "10000", "100000"})
+    public int regions;
+
+    private Settings settings;
+    private Player player;
+    private Player playerAtLimit;
+    private List<ProtectedRegion> all;
+    private Map<String, ProtectedRegion> byId;
+    private TypeCountIndex index;
+    private TypeLimitCache limitCache;
+    private TypeLimitCache limitCacheAtLimit;
+
+    @Setup
+    public void setup() {
+        Fakes.installServer();
+        settings = Fakes.settings();
+
+        Random random = new Random(616);
+        UUID[] owners = new UUID[Math.max(regions / 10, 1)];
+        for (int i = 0; i < owners.length; i++) {
+            owners[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        player = Fakes.player(owners[0], "Player0", Collections.singleton("plotsigns.type.small.9"));
+        // Owns more small plots than allowed so every check has to verify the indexed regions
+        playerAtLimit = Fakes.player(owners[0], "Player0", Collections.singleton("plotsigns.type.small.1"));
+
+        all = new ArrayList<>(regions);
+        byId = new HashMap<>();
+        int side = (int) Math.ceil(Math.sqrt(regions));
+        for (int i = 0; i < regions; i++) {
+            int x = (i % side) * 16;
+            int z = (i / side) * 16;
+            ProtectedRegion region = new ProtectedCuboidRegion("plot" + i, BlockVector3.at(x, 0, z), BlockVector3.at(x + 15, 255, z + 15));
+            region.setFlag(PlotSigns.PLOT_TYPE_FLAG, TYPES[i % TYPES.length]);
+            region.getOwners().addPlayer(owners[random.nextInt(owners.length)]);
+            all.add(region);
+            byId.put(region.getId(), region);
+        }
+
+        index = new TypeCountIndex();
+        index.rebuild(WORLD, all);
+        limitCache = new TypeLimitCache();
+        // Separate cache as the limits are cached by UUID
+        limitCacheAtLimit = new TypeLimitCache();
+    }
+
+    /**
+     * The check of a purchase that stays below the limit
+     */
+    @Benchmark
+    public boolean indexed() {
+        return PlotSigns.checkTypeCount(index, limitCache, settings, byId::get, player, WORLD, "small", 1);
+    }
+
+    /**
+     * The check of a purchase over the limit which verifies the player's indexed regions
+     */
+    @Benchmark
+    public boolean indexedOverLimit() {
+        return PlotSigns.checkTypeCount(index, limitCacheAtLimit, settings, byId::get, playerAtLimit, WORLD, "small", 1);
+    }
+
+    /**
+     * How the type count was checked before the index existed (without the permission lookups)
+     */
+    @Benchmark
+    public boolean scan() {
+        int count = 0;
+        for (ProtectedRegion region : all) {
+            if ("small".equals(region.getFlag(PlotSigns.PLOT_TYPE_FLAG)) && region.getOwners().contains(player.getUniqueId())) {
+                count++;
+            }
+        }
+        return count < 9;
+    }
+
+    /**
+     * Building the index when a world loads or the config is reloaded
+     */
+    @Benchmark
+    public TypeCountIndex rebuild() {
+        TypeCountIndex index = new TypeCountIndex();
+        index.rebuild(WORLD, all);
+        return index;
+    }
+}
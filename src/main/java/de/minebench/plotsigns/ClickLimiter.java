@@ -0,0 +1,110 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.block.Block;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-player token bucket for interactions with plot signs. Repeated clicks on the same sign within
+ * the cooldown are dropped without using a token. The state of a player is updated in place so that
+ * a click doesn't allocate anything once the player has clicked a sign before.
+ * Only accessed from the main thread.
+ */
+public class ClickLimiter {
+    private final Map<UUID, Bucket> buckets = new HashMap<>();
+
+    private double tokensPerNano = 2.0 / TimeUnit.SECONDS.toNanos(1);
+    private double capacity = 4;
+    private long cooldown = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * Set the limits
+     * @param rate      How many clicks per second are allowed on average, 0 or less disables the limit
+     * @param burst     How many clicks are allowed at once
+     * @param cooldown  Milliseconds in which further clicks on the same sign are ignored
+     */
+    public void setLimits(double rate, int burst, long cooldown) {
+        this.tokensPerNano = rate > 0 ? rate / TimeUnit.SECONDS.toNanos(1) : 0;
+        this.capacity = Math.max(1, burst);
+        this.cooldown = TimeUnit.MILLISECONDS.toNanos(Math.max(0, cooldown));
+    }
+
+    /**
+     * Check whether a player may interact with a sign and use up a token if so
+     * @param playerId  The UUID of the player
+     * @param block     The block of the sign
+     * @return Whether the click should be handled
+     */
+    public boolean tryClick(UUID playerId, Block block) {
+        long now = System.nanoTime();
+        Bucket bucket = buckets.get(playerId);
+        if (bucket == null) {
+            bucket = new Bucket(capacity, now);
+            buckets.put(playerId, bucket);
+        } else if (bucket.world == block.getWorld()
+                && bucket.x == block.getX() && bucket.y == block.getY() && bucket.z == block.getZ()
+                && now - bucket.lastClick < cooldown) {
+            return false;
+        }
+
+        if (tokensPerNano > 0) {
+            bucket.tokens = Math.min(capacity, bucket.tokens + (now - bucket.lastRefill) * tokensPerNano);
+            bucket.lastRefill = now;
+            if (bucket.tokens < 1) {
+                return false;
+            }
+            bucket.tokens--;
+        }
+
+        bucket.world = block.getWorld();
+        bucket.x = block.getX();
+        bucket.y = block.getY();
+        bucket.z = block.getZ();
+        bucket.lastClick = now;
+        return true;
+    }
+
+    /**
+     * Forget the state of a player
+     * @param playerId The UUID of the player
+     */
+    public void remove(UUID playerId) {
+        buckets.remove(playerId);
+    }
+
+    private static class Bucket {
+        private double tokens;
+        private long lastRefill;
+        private Object world = null;
+        private int x;
+        private int y;
+        private int z;
+        private long lastClick;
+
+        private Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+        }
+    }
+}
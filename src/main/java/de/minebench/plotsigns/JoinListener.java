@@ -32,10 +32,10 @@ public class JoinListener implements Listener {
     @EventHandler(ignoreCancelled = true)
     public void onPlayerJoin(PlayerJoinEvent event) {
         if (plugin.hasMessageIntents(event.getPlayer().getUniqueId())) {
-            for (String message : plugin.getMessageIntents(event.getPlayer().getUniqueId())) {
-                event.getPlayer().sendMessage(message);
-            }
-            plugin.removeMessageIntents(event.getPlayer().getUniqueId());
+            plugin.getMessageStore().deliver(event.getPlayer());
+        }
+        if (plugin.getMarketStorage() != null) {
+            plugin.getMarketStorage().deliverNotifications(event.getPlayer());
         }
     }
 }
@@ -0,0 +1,121 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.ChatColor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A language message that was parsed into literal text and %placeholder% slots once
+ * so that it can be rendered in a single pass. Color codes are already translated.
+ */
+public final class LangTemplate {
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalLength;
+
+    private LangTemplate(String[] literals, String[] placeholders) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Parse a message with &amp; color codes and %placeholder% slots
+     * @param message The raw message
+     * @return The template
+     */
+    public static LangTemplate compile(String message) {
+        String translated = ChatColor.translateAlternateColorCodes('&', message);
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < translated.length()) {
+            char c = translated.charAt(i);
+            if (c == '%') {
+                int end = translated.indexOf('%', i + 1);
+                if (end > i + 1 && isPlaceholderName(translated, i + 1, end)) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    placeholders.add(translated.substring(i + 1, end));
+                    i = end + 1;
+                    continue;
+                }
+            }
+            literal.append(c);
+            i++;
+        }
+        literals.add(literal.toString());
+        return new LangTemplate(literals.toArray(new String[0]), placeholders.toArray(new String[0]));
+    }
+
+    private static boolean isPlaceholderName(String string, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = string.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Render the message
+     * @param args The replacements as pairs of placeholder name and value, e.g. "region", "plot1"
+     * @return The rendered message
+     */
+    public String render(String... args) {
+        if (placeholders.length == 0) {
+            return literals[0];
+        }
+        int length = literalLength;
+        for (int i = 1; i < args.length; i += 2) {
+            length += args[i] != null ? args[i].length() : 4;
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < placeholders.length; i++) {
+            sb.append(literals[i]);
+            String value = getValue(placeholders[i], args);
+            if (value != null) {
+                sb.append(value);
+            } else {
+                // Keep unknown placeholders as they are
+                sb.append('%').append(placeholders[i]).append('%');
+            }
+        }
+        sb.append(literals[placeholders.length]);
+        return sb.toString();
+    }
+
+    private static String getValue(String placeholder, String[] args) {
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (placeholder.equals(args[i])) {
+                return args[i + 1] != null ? args[i + 1] : "null";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,392 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Active leases of rented regions. The leases are kept in a queue ordered by their expiry and
+ * a single task is scheduled for the next lease that is due, so nothing runs while no lease is due.
+ * Only accessed from the main thread.
+ */
+public class LeaseManager {
+    /**
+     * Wake up at least once per hour so that lag doesn't add up to a big delay
+     */
+    private static final long MAX_DELAY = TimeUnit.HOURS.toMillis(1);
+
+    private final PlotSigns plugin;
+    private final File file;
+    private final Object fileLock = new Object();
+    /**
+     * Version of the last snapshot that was taken and of the last one that was written,
+     * async writes of older snapshots that run after a newer one are skipped
+     */
+    private final AtomicLong savedVersion = new AtomicLong();
+    private long writtenVersion = 0;
+
+    /**
+     * World name + region id -> lease
+     */
+    private final Map<String, Lease> leases = new HashMap<>();
+
+    /**
+     * Leases ordered by when they have to be checked next. Removed leases are only skipped when they are polled.
+     */
+    private final PriorityQueue<Lease> queue = new PriorityQueue<>(Comparator.comparingLong(l -> l.nextCheck));
+
+    private BukkitTask wakeup = null;
+    private long wakeupAt = Long.MAX_VALUE;
+    private boolean dirty = false;
+
+    public LeaseManager(PlotSigns plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "leases.yml");
+    }
+
+    /**
+     * Load the leases from the disk
+     */
+    public void load() {
+        leases.clear();
+        queue.clear();
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        for (Map<?, ?> map : config.getMapList("leases")) {
+            try {
+                List<UUID> landlords = new ArrayList<>();
+                Object landlordList = map.get("landlords");
+                if (landlordList instanceof List) {
+                    for (Object landlord : (List<?>) landlordList) {
+                        landlords.add(UUID.fromString(String.valueOf(landlord)));
+                    }
+                }
+                Object type = map.get("type");
+                Lease lease = new Lease(
+                        String.valueOf(map.get("world")),
+                        String.valueOf(map.get("region")),
+                        UUID.fromString(String.valueOf(map.get("tenant"))),
+                        String.valueOf(map.get("tenant-name")),
+                        landlords,
+                        ((Number) map.get("price")).doubleValue(),
+                        ((Number) map.get("period")).longValue(),
+                        type != null ? String.valueOf(type) : null,
+                        ((Number) map.get("expires")).longValue()
+                );
+                lease.autoRenew = !Boolean.FALSE.equals(map.get("auto-renew"));
+                leases.put(getKey(lease.world, lease.regionId), lease);
+                queue.add(lease);
+            } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+                plugin.getLogger().log(Level.WARNING, "Invalid lease " + map + ": " + e.getMessage());
+            }
+        }
+        schedule();
+    }
+
+    /**
+     * Write the leases to the disk if they changed
+     * @param async Whether the file should be written asynchronously
+     */
+    public void save(boolean async) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("world", lease.world);
+            map.put("region", lease.regionId);
+            map.put("tenant", lease.tenantId.toString());
+            map.put("tenant-name", lease.tenantName);
+            List<String> landlords = new ArrayList<>();
+            for (UUID landlord : lease.landlords) {
+                landlords.add(landlord.toString());
+            }
+            map.put("landlords", landlords);
+            map.put("price", lease.price);
+            map.put("period", lease.period);
+            if (lease.type != null) {
+                map.put("type", lease.type);
+            }
+            map.put("expires", lease.expires);
+            map.put("auto-renew", lease.autoRenew);
+            list.add(map);
+        }
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("leases", list);
+        String data = config.saveToString();
+        long version = savedVersion.incrementAndGet();
+        if (async) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(data, version));
+        } else {
+            write(data, version);
+        }
+    }
+
+    private void write(String data, long version) {
+        synchronized (fileLock) {
+            if (version <= writtenVersion) {
+                // A newer snapshot was already written
+                return;
+            }
+            try {
+                PlotSigns.writeFile(file, data);
+                writtenVersion = version;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while saving the leases to " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Add a new lease, this replaces any existing lease of the region
+     * @param lease The lease
+     */
+    public void add(Lease lease) {
+        leases.put(getKey(lease.world, lease.regionId), lease);
+        queue.add(lease);
+        dirty = true;
+        save(true);
+        schedule();
+    }
+
+    /**
+     * Extend a lease by one period. The lease has to have been handed out by {@link PlotSigns#handleLeaseDue}.
+     * @param lease The lease
+     */
+    public void renew(Lease lease) {
+        lease.expires += TimeUnit.MINUTES.toMillis(lease.period);
+        lease.nextCheck = lease.expires;
+        if (leases.get(getKey(lease.world, lease.regionId)) == lease) {
+            queue.add(lease);
+            schedule();
+        }
+        dirty = true;
+        save(true);
+    }
+
+    /**
+     * Check a lease again later, e.g. because its world isn't loaded
+     * @param lease The lease
+     * @param delay The delay in milliseconds
+     */
+    public void retry(Lease lease, long delay) {
+        lease.nextCheck = System.currentTimeMillis() + delay;
+        if (leases.get(getKey(lease.world, lease.regionId)) == lease) {
+            queue.add(lease);
+            schedule();
+        }
+    }
+
+    /**
+     * Remove a lease
+     * @param lease The lease
+     */
+    public void remove(Lease lease) {
+        if (leases.remove(getKey(lease.world, lease.regionId), lease)) {
+            dirty = true;
+            save(true);
+        }
+    }
+
+    /**
+     * Set whether a lease should be renewed automatically when it expires
+     * @param lease     The lease
+     * @param autoRenew Whether to renew it
+     */
+    public void setAutoRenew(Lease lease, boolean autoRenew) {
+        lease.autoRenew = autoRenew;
+        dirty = true;
+        save(true);
+    }
+
+    /**
+     * Get the lease of a region
+     * @param world     The name of the world
+     * @param regionId  The id of the region
+     * @return The lease or null if the region isn't rented
+     */
+    public Lease getLease(String world, String regionId) {
+        return leases.get(getKey(world, regionId));
+    }
+
+    /**
+     * @return An unmodifiable view of all active leases
+     */
+    public Map<String, Lease> getLeases() {
+        return Collections.unmodifiableMap(leases);
+    }
+
+    /**
+     * Stop waiting for the next lease
+     */
+    public void stop() {
+        if (wakeup != null) {
+            wakeup.cancel();
+            wakeup = null;
+        }
+        wakeupAt = Long.MAX_VALUE;
+    }
+
+    /**
+     * Make sure that the task is scheduled for the next lease in the queue
+     */
+    private void schedule() {
+        Lease next = queue.peek();
+        if (next == null) {
+            stop();
+            return;
+        }
+        if (wakeup != null && wakeupAt <= next.nextCheck) {
+            return;
+        }
+        stop();
+        long delay = Math.min(Math.max(next.nextCheck - System.currentTimeMillis(), 0), MAX_DELAY);
+        wakeupAt = next.nextCheck;
+        wakeup = plugin.getServer().getScheduler().runTaskLater(plugin, this::wake, Math.max(1, (delay + 49) / 50));
+    }
+
+    private void wake() {
+        wakeup = null;
+        wakeupAt = Long.MAX_VALUE;
+        long now = System.currentTimeMillis();
+        List<Lease> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().nextCheck <= now) {
+            Lease lease = queue.poll();
+            // Skip leases that were removed or replaced while they were queued
+            if (leases.get(getKey(lease.world, lease.regionId)) == lease && !due.contains(lease)) {
+                due.add(lease);
+            }
+        }
+        for (Lease lease : due) {
+            try {
+                plugin.handleLeaseDue(lease);
+            } catch (RuntimeException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while handling the lease of " + lease.regionId + " in " + lease.world, e);
+                retry(lease, TimeUnit.MINUTES.toMillis(1));
+            }
+        }
+        schedule();
+    }
+
+    private static String getKey(String world, String regionId) {
+        return world + " " + regionId;
+    }
+
+    public static class Lease {
+        private final String world;
+        private final String regionId;
+        private final UUID tenantId;
+        private final String tenantName;
+        private final List<UUID> landlords;
+        private final double price;
+        private final long period;
+        private final String type;
+        private long expires;
+        private long nextCheck;
+        private boolean autoRenew = true;
+
+        /**
+         * @param world         The world of the region
+         * @param regionId      The id of the region
+         * @param tenantId      The UUID of the player that rents the region
+         * @param tenantName    The name of the player that rents the region
+         * @param landlords     The owners that the region goes back to after the lease ended
+         * @param price         The price per period
+         * @param period        The length of a period in minutes
+         * @param type          The type of the region
+         * @param expires       When the lease expires as a unix timestamp in milliseconds
+         */
+        public Lease(String world, String regionId, UUID tenantId, String tenantName, List<UUID> landlords, double price, long period, String type, long expires) {
+            this.world = world;
+            this.regionId = regionId;
+            this.tenantId = tenantId;
+            this.tenantName = tenantName;
+            this.landlords = Collections.unmodifiableList(new ArrayList<>(landlords));
+            this.price = price;
+            this.period = period;
+            this.type = type;
+            this.expires = expires;
+            this.nextCheck = expires;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+
+        public UUID getTenantId() {
+            return tenantId;
+        }
+
+        public String getTenantName() {
+            return tenantName;
+        }
+
+        public List<UUID> getLandlords() {
+            return landlords;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        /**
+         * @return The length of a period in minutes
+         */
+        public long getPeriod() {
+            return period;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public boolean isAutoRenew() {
+            return autoRenew;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Index of all regions that are currently buyable sorted by their price and type
+ */
+public class MarketIndex {
+
+    /**
+     * World name + region id -> listing
+     */
+    private final Map<String, Listing> listings = new HashMap<>();
+
+    /**
+     * Price -> listings with that price
+     */
+    private final NavigableMap<Double, Map<String, Listing>> byPrice = new TreeMap<>();
+
+    /**
+     * Type -> price -> listings, regions without a type use an empty string
+     */
+    private final NavigableMap<String, NavigableMap<Double, Map<String, Listing>>> byType = new TreeMap<>();
+
+    /**
+     * World name -> type -> amount of listings, so that the total of a query over all prices doesn't need to walk the listings
+     */
+    private final Map<String, Map<String, Integer>> counts = new HashMap<>();
+
+    /**
+     * Build the index of a world from scratch
+     * @param world The name of the world
+     * @param rm    The world's RegionManager
+     */
+    public synchronized void rebuild(String world, RegionManager rm) {
+        clear(world);
+        for (ProtectedRegion region : rm.getRegions().values()) {
+            update(world, region);
+        }
+    }
+
+    /**
+     * Remove all listings of a world
+     * @param world The name of the world
+     */
+    public synchronized void clear(String world) {
+        for (Listing listing : new ArrayList<>(listings.values())) {
+            if (listing.getWorld().equals(world)) {
+                remove(world, listing.getRegionId());
+            }
+        }
+    }
+
+    /**
+     * Update the listing of a region after its buyable, price or type flag changed
+     * @param world  The name of the world the region is in
+     * @param region The region
+     */
+    public synchronized void update(String world, ProtectedRegion region) {
+        remove(world, region.getId());
+
+        Boolean buyable = region.getFlag(PlotSigns.BUYABLE_FLAG);
+        Double price = region.getFlag(PlotSigns.PRICE_FLAG);
+        if (buyable == null || !buyable || price == null) {
+            return;
+        }
+
+        String type = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
+        Listing listing = new Listing(world, region.getId(), price, type != null ? type : "",
+                region.getMaximumPoint().getBlockX() - region.getMinimumPoint().getBlockX() + 1,
+                region.getMaximumPoint().getBlockZ() - region.getMinimumPoint().getBlockZ() + 1);
+        String key = getKey(world, region.getId());
+        listings.put(key, listing);
+        byPrice.computeIfAbsent(price, p -> new LinkedHashMap<>()).put(key, listing);
+        byType.computeIfAbsent(listing.getType(), t -> new TreeMap<>())
+                .computeIfAbsent(price, p -> new LinkedHashMap<>()).put(key, listing);
+        counts.computeIfAbsent(world, w -> new HashMap<>()).merge(listing.getType(), 1, Integer::sum);
+    }
+
+    /**
+     * Remove the listing of a region
+     * @param world    The name of the world the region is in
+     * @param regionId The id of the region
+     */
+    public synchronized void remove(String world, String regionId) {
+        String key = getKey(world, regionId);
+        Listing listing = listings.remove(key);
+        if (listing == null) {
+            return;
+        }
+        removeFrom(byPrice, listing.getPrice(), key);
+        Map<String, Integer> worldCounts = counts.get(world);
+        if (worldCounts != null) {
+            worldCounts.computeIfPresent(listing.getType(), (t, c) -> c > 1 ? c - 1 : null);
+            if (worldCounts.isEmpty()) {
+                counts.remove(world);
+            }
+        }
+        NavigableMap<Double, Map<String, Listing>> typeListings = byType.get(listing.getType());
+        if (typeListings != null) {
+            removeFrom(typeListings, listing.getPrice(), key);
+            if (typeListings.isEmpty()) {
+                byType.remove(listing.getType());
+            }
+        }
+    }
+
+    private static void removeFrom(NavigableMap<Double, Map<String, Listing>> map, double price, String key) {
+        Map<String, Listing> priceListings = map.get(price);
+        if (priceListings != null) {
+            priceListings.remove(key);
+            if (priceListings.isEmpty()) {
+                map.remove(price);
+            }
+        }
+    }
+
+    /**
+     * Check a listing against WorldGuard and update it if the region was changed outside of the plugin
+     * @param rm        The RegionManager of the listing's world
+     * @param listing   The listing
+     * @return Whether the listing was outdated
+     */
+    public synchronized boolean verify(RegionManager rm, Listing listing) {
+        ProtectedRegion region = rm.getRegion(listing.getRegionId());
+        if (region == null) {
+            remove(listing.getWorld(), listing.getRegionId());
+            return true;
+        }
+        Boolean buyable = region.getFlag(PlotSigns.BUYABLE_FLAG);
+        Double price = region.getFlag(PlotSigns.PRICE_FLAG);
+        String type = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
+        if (buyable == null || !buyable || price == null || price != listing.getPrice() || !listing.getType().equals(type != null ? type : "")) {
+            update(listing.getWorld(), region);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get all buyable regions of a world
+     * @param world The name of the world
+     * @return A copy of the listings
+     */
+    public synchronized List<Listing> getListings(String world) {
+        List<Listing> worldListings = new ArrayList<>();
+        for (Listing listing : listings.values()) {
+            if (listing.getWorld().equals(world)) {
+                worldListings.add(listing);
+            }
+        }
+        return worldListings;
+    }
+
+    /**
+     * Get the amount of buyable regions
+     * @return The amount of listings
+     */
+    public synchronized int size() {
+        return listings.size();
+    }
+
+    /**
+     * Search for buyable regions
+     * @param world     The world to search in or null for all worlds
+     * @param type      The type to search for or null for all types, use an empty string for regions without a type
+     * @param minPrice  The minimum price
+     * @param maxPrice  The maximum price
+     * @param sort      How to sort the results
+     * @param offset    How many results to skip
+     * @param limit     The maximum amount of results to return
+     * @return The result
+     */
+    public synchronized Result query(String world, String type, double minPrice, double maxPrice, Sort sort, int offset, int limit) {
+        if (minPrice > maxPrice) {
+            return new Result(Collections.emptyList(), 0);
+        }
+        List<NavigableMap<Double, Map<String, Listing>>> sources = new ArrayList<>();
+        if (type != null) {
+            NavigableMap<Double, Map<String, Listing>> typeListings = byType.get(type);
+            if (typeListings != null) {
+                sources.add(typeListings);
+            }
+        } else if (sort == Sort.TYPE) {
+            sources.addAll(byType.values());
+        } else {
+            sources.add(byPrice);
+        }
+
+        // If the price range contains all listings the total can be taken from the counts
+        boolean allPrices = true;
+        for (NavigableMap<Double, Map<String, Listing>> source : sources) {
+            if (!source.isEmpty() && (minPrice > source.firstKey() || maxPrice < source.lastKey())) {
+                allPrices = false;
+                break;
+            }
+        }
+
+        List<Listing> results = new ArrayList<>();
+        int matched = 0;
+        sources:
+        for (NavigableMap<Double, Map<String, Listing>> source : sources) {
+            NavigableMap<Double, Map<String, Listing>> range = source.subMap(minPrice, true, maxPrice, true);
+            if (sort == Sort.PRICE_DESCENDING) {
+                range = range.descendingMap();
+            }
+            for (Map<String, Listing> priceListings : range.values()) {
+                if (world == null && (matched + priceListings.size() <= offset || results.size() >= limit)) {
+                    // Only counted, no need to look at the single listings
+                    matched += priceListings.size();
+                    continue;
+                }
+                for (Listing listing : priceListings.values()) {
+                    if (world == null || world.equals(listing.getWorld())) {
+                        if (matched >= offset && results.size() < limit) {
+                            results.add(listing);
+                        }
+                        matched++;
+                        if (allPrices && results.size() >= limit) {
+                            break sources;
+                        }
+                    }
+                }
+            }
+        }
+        return new Result(results, allPrices ? count(world, type) : matched);
+    }
+
+    /**
+     * Get the amount of listings
+     * @param world The world or null for all worlds
+     * @param type  The type or null for all types
+     * @return The amount
+     */
+    private int count(String world, String type) {
+        int count = 0;
+        for (Map.Entry<String, Map<String, Integer>> worldCounts : counts.entrySet()) {
+            if (world != null && !world.equals(worldCounts.getKey())) {
+                continue;
+            }
+            if (type != null) {
+                count += worldCounts.getValue().getOrDefault(type, 0);
+            } else {
+                for (int typeCount : worldCounts.getValue().values()) {
+                    count += typeCount;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static String getKey(String world, String regionId) {
+        return world + " " + regionId;
+    }
+
+    public enum Sort {
+        PRICE,
+        PRICE_DESCENDING,
+        TYPE
+    }
+
+    public static class Result {
+        private final List<Listing> listings;
+        private final int total;
+
+        Result(List<Listing> listings, int total) {
+            this.listings = listings;
+            this.total = total;
+        }
+
+        public List<Listing> getListings() {
+            return listings;
+        }
+
+        /**
+         * Get the amount of all listings matching the query
+         * @return The total amount
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    public static class Listing {
+        private final String world;
+        private final String regionId;
+        private final double price;
+        private final String type;
+        private final int sizeX;
+        private final int sizeZ;
+
+        Listing(String world, String regionId, double price, String type, int sizeX, int sizeZ) {
+            this.world = world;
+            this.regionId = regionId;
+            this.price = price;
+            this.type = type;
+            this.sizeX = sizeX;
+            this.sizeZ = sizeZ;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getSizeX() {
+            return sizeX;
+        }
+
+        public int getSizeZ() {
+            return sizeZ;
+        }
+    }
+}
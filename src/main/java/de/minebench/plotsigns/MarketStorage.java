@@ -0,0 +1,546 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Optional SQL storage of the buyable regions, the sales and the notifications of offline players.
+ * Several servers can share one MySQL database to get a common view of the market, a single server
+ * can use the embedded SQLite database. Writes are queued and written in batches on a separate thread,
+ * queries run on a small pool of connections.
+ */
+public class MarketStorage {
+    private final PlotSigns plugin;
+    private final boolean mysql;
+    private final String url;
+    private final String user;
+    private final String password;
+    private final String prefix;
+    private final int poolSize;
+
+    private final BlockingQueue<Connection> pool;
+    private final ExecutorService io;
+    private final ExecutorService queries;
+    private final Queue<Write> writeQueue = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean connected = false;
+    private volatile boolean failed = false;
+
+    /**
+     * Create the storage from the settings, nothing is connected until {@link #connect()} is called
+     * @param plugin    The plugin
+     * @param settings  The settings with the storage type and credentials
+     * @throws IllegalArgumentException If the storage type is unknown
+     */
+    public MarketStorage(PlotSigns plugin, Settings settings) throws IllegalArgumentException {
+        this.plugin = plugin;
+        this.prefix = settings.getStorageTablePrefix();
+        switch (settings.getStorageType()) {
+            case "sqlite":
+                mysql = false;
+                url = "jdbc:sqlite:" + new File(plugin.getDataFolder(), "market.db").getAbsolutePath();
+                user = null;
+                password = null;
+                // SQLite only allows one writer at a time anyways
+                poolSize = 1;
+                break;
+            case "mysql":
+                mysql = true;
+                url = "jdbc:mysql://" + settings.getStorageHost() + ":" + settings.getStoragePort() + "/" + settings.getStorageDatabase() + "?useUnicode=true&characterEncoding=utf8&rewriteBatchedStatements=true";
+                user = settings.getStorageUser();
+                password = settings.getStoragePassword();
+                poolSize = Math.max(2, settings.getStoragePoolSize());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown storage type " + settings.getStorageType() + "! Use none, sqlite or mysql.");
+        }
+        pool = new ArrayBlockingQueue<>(poolSize);
+        io = Executors.newSingleThreadExecutor(r -> new Thread(r, plugin.getName() + " Storage"));
+        queries = Executors.newFixedThreadPool(Math.max(1, poolSize - 1), r -> new Thread(r, plugin.getName() + " Storage Query"));
+    }
+
+    /**
+     * Open the connections and create the tables. This happens on the storage thread,
+     * everything that is queued before it is done gets written afterwards.
+     */
+    public void connect() {
+        io.execute(() -> {
+            try {
+                Class.forName(mysql ? "com.mysql.jdbc.Driver" : "org.sqlite.JDBC");
+            } catch (ClassNotFoundException e) {
+                plugin.getLogger().log(Level.WARNING, "No " + (mysql ? "MySQL" : "SQLite") + " driver found, relying on the DriverManager to find one");
+            }
+            try {
+                plugin.getDataFolder().mkdirs();
+                for (int i = 0; i < poolSize; i++) {
+                    pool.add(open());
+                }
+                Connection connection = borrow();
+                try (Statement statement = connection.createStatement()) {
+                    for (String sql : getSchema()) {
+                        statement.execute(sql);
+                    }
+                } finally {
+                    release(connection);
+                }
+                connected = true;
+                plugin.getLogger().log(Level.INFO, "Connected to the " + (mysql ? "MySQL" : "SQLite") + " market storage");
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "Unable to connect to the market storage! Nothing will be stored until the next restart.", e);
+                failed = true;
+                List<Write> queued = new ArrayList<>();
+                Write write;
+                while ((write = writeQueue.poll()) != null) {
+                    queued.add(write);
+                }
+                storeNotificationsLocally(queued);
+            }
+        });
+    }
+
+    private String[] getSchema() {
+        if (mysql) {
+            return new String[] {
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "listings ("
+                            + "world VARCHAR(64) NOT NULL, region VARCHAR(64) NOT NULL, price DOUBLE NOT NULL, type VARCHAR(16) NOT NULL,"
+                            + "size_x INT NOT NULL, size_z INT NOT NULL, updated BIGINT NOT NULL,"
+                            + "PRIMARY KEY (world, region), INDEX (price), INDEX (type, price)) DEFAULT CHARSET=utf8mb4",
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "sales ("
+                            + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, time BIGINT NOT NULL, world VARCHAR(64) NOT NULL, region VARCHAR(64) NOT NULL,"
+                            + "buyer CHAR(36) NOT NULL, buyer_name VARCHAR(16) NOT NULL, price DOUBLE NOT NULL, type VARCHAR(16) NOT NULL,"
+                            + "INDEX (buyer, time), INDEX (world, region, time)) DEFAULT CHARSET=utf8mb4",
+                    "CREATE TABLE IF NOT EXISTS " + prefix + "notifications ("
+                            + "id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, player CHAR(36) NOT NULL, message TEXT NOT NULL, time BIGINT NOT NULL,"
+                            + "INDEX (player, id)) DEFAULT CHARSET=utf8mb4"
+            };
+        }
+        return new String[] {
+                "CREATE TABLE IF NOT EXISTS " + prefix + "listings ("
+                        + "world TEXT NOT NULL, region TEXT NOT NULL, price REAL NOT NULL, type TEXT NOT NULL,"
+                        + "size_x INTEGER NOT NULL, size_z INTEGER NOT NULL, updated INTEGER NOT NULL,"
+                        + "PRIMARY KEY (world, region))",
+                "CREATE INDEX IF NOT EXISTS " + prefix + "listings_price ON " + prefix + "listings (price)",
+                "CREATE INDEX IF NOT EXISTS " + prefix + "listings_type ON " + prefix + "listings (type, price)",
+                "CREATE TABLE IF NOT EXISTS " + prefix + "sales ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT, time INTEGER NOT NULL, world TEXT NOT NULL, region TEXT NOT NULL,"
+                        + "buyer TEXT NOT NULL, buyer_name TEXT NOT NULL, price REAL NOT NULL, type TEXT NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS " + prefix + "sales_buyer ON " + prefix + "sales (buyer, time)",
+                "CREATE INDEX IF NOT EXISTS " + prefix + "sales_region ON " + prefix + "sales (world, region, time)",
+                "CREATE TABLE IF NOT EXISTS " + prefix + "notifications ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT, player TEXT NOT NULL, message TEXT NOT NULL, time INTEGER NOT NULL)",
+                "CREATE INDEX IF NOT EXISTS " + prefix + "notifications_player ON " + prefix + "notifications (player, id)"
+        };
+    }
+
+    /**
+     * Update the stored listing of a region after its buyable, price or type flag changed
+     * @param world  The name of the world the region is in
+     * @param region The region
+     */
+    public void updateListing(String world, ProtectedRegion region) {
+        Boolean buyable = region.getFlag(PlotSigns.BUYABLE_FLAG);
+        Double price = region.getFlag(PlotSigns.PRICE_FLAG);
+        if (buyable == null || !buyable || price == null) {
+            queue("DELETE FROM " + prefix + "listings WHERE world = ? AND region = ?", world, region.getId());
+            return;
+        }
+        String type = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
+        queue("REPLACE INTO " + prefix + "listings (world, region, price, type, size_x, size_z, updated) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                world, region.getId(), price, type != null ? type : "",
+                region.getMaximumPoint().getBlockX() - region.getMinimumPoint().getBlockX() + 1,
+                region.getMaximumPoint().getBlockZ() - region.getMinimumPoint().getBlockZ() + 1,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * Replace all stored listings of a world, e.g. after it was indexed
+     * @param world     The name of the world
+     * @param listings  The current listings of the world
+     */
+    public void replaceListings(String world, Collection<MarketIndex.Listing> listings) {
+        queue("DELETE FROM " + prefix + "listings WHERE world = ?", world);
+        long now = System.currentTimeMillis();
+        for (MarketIndex.Listing listing : listings) {
+            queue("REPLACE INTO " + prefix + "listings (world, region, price, type, size_x, size_z, updated) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                    world, listing.getRegionId(), listing.getPrice(), listing.getType(), listing.getSizeX(), listing.getSizeZ(), now);
+        }
+    }
+
+    /**
+     * Record a completed sale
+     * @param transaction The committed transaction of the purchase
+     */
+    public void recordSale(PurchaseJournal.Transaction transaction) {
+        queue("INSERT INTO " + prefix + "sales (time, world, region, buyer, buyer_name, price, type) VALUES (?, ?, ?, ?, ?, ?, ?)",
+                transaction.getTime(), transaction.getWorld(), transaction.getRegionId(), transaction.getBuyerId().toString(),
+                transaction.getBuyerName(), transaction.getPrice(), transaction.getType() != null ? transaction.getType() : "");
+    }
+
+    /**
+     * Store a message for a player that isn't online. It is delivered when they join any server using this storage.
+     * @param playerId  The UUID of the player
+     * @param message   The message
+     */
+    public void addNotification(UUID playerId, String message) {
+        queue("INSERT INTO " + prefix + "notifications (player, message, time) VALUES (?, ?, ?)",
+                playerId.toString(), message, System.currentTimeMillis());
+    }
+
+    /**
+     * Load the stored notifications of a player, send them to the player and remove them from the storage
+     * @param player The player
+     */
+    public void deliverNotifications(Player player) {
+        UUID playerId = player.getUniqueId();
+        io.execute(() -> {
+            if (!connected) {
+                return;
+            }
+            // Make sure that notifications from this server are included
+            writeQueued();
+            List<String> messages = new ArrayList<>();
+            try {
+                Connection connection = borrow();
+                try {
+                    long lastId = -1;
+                    try (PreparedStatement statement = connection.prepareStatement("SELECT id, message FROM " + prefix + "notifications WHERE player = ? ORDER BY id")) {
+                        statement.setString(1, playerId.toString());
+                        try (ResultSet result = statement.executeQuery()) {
+                            while (result.next()) {
+                                lastId = result.getLong(1);
+                                messages.add(result.getString(2));
+                            }
+                        }
+                    }
+                    if (lastId < 0) {
+                        return;
+                    }
+                    // Only delete what was read, other servers might have added new ones in the meantime
+                    try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + prefix + "notifications WHERE player = ? AND id <= ?")) {
+                        statement.setString(1, playerId.toString());
+                        statement.setLong(2, lastId);
+                        statement.executeUpdate();
+                    }
+                } finally {
+                    release(connection);
+                }
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while loading the notifications of " + player.getName(), e);
+                return;
+            }
+            try {
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    for (String message : messages) {
+                        if (player.isOnline()) {
+                            player.sendMessage(message);
+                        } else {
+                            addNotification(playerId, message);
+                        }
+                    }
+                });
+            } catch (IllegalPluginAccessException e) {
+                // Plugin is disabling, write them back
+                for (String message : messages) {
+                    addNotification(playerId, message);
+                }
+                writeQueued();
+            }
+        });
+    }
+
+    /**
+     * Search for buyable regions of all servers that use this storage
+     * @param world     The world to search in or null for all worlds
+     * @param type      The type to search for or null for all types, use an empty string for regions without a type
+     * @param minPrice  The minimum price
+     * @param maxPrice  The maximum price
+     * @param sort      How to sort the results
+     * @param offset    How many results to skip
+     * @param limit     The maximum amount of results to return
+     * @return A future that is completed with the result on a storage thread
+     */
+    public CompletableFuture<MarketIndex.Result> queryListings(String world, String type, double minPrice, double maxPrice, MarketIndex.Sort sort, int offset, int limit) {
+        CompletableFuture<MarketIndex.Result> future = new CompletableFuture<>();
+        queries.execute(() -> {
+            StringBuilder where = new StringBuilder(" WHERE price >= ? AND price <= ?");
+            List<Object> params = new ArrayList<>();
+            params.add(minPrice);
+            params.add(maxPrice);
+            if (world != null) {
+                where.append(" AND world = ?");
+                params.add(world);
+            }
+            if (type != null) {
+                where.append(" AND type = ?");
+                params.add(type);
+            }
+            String order;
+            switch (sort) {
+                case PRICE_DESCENDING:
+                    order = " ORDER BY price DESC, world, region";
+                    break;
+                case TYPE:
+                    order = " ORDER BY type, price, world, region";
+                    break;
+                default:
+                    order = " ORDER BY price, world, region";
+            }
+            try {
+                Connection connection = borrow();
+                try {
+                    int total;
+                    try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + prefix + "listings" + where)) {
+                        bind(statement, params.toArray());
+                        try (ResultSet result = statement.executeQuery()) {
+                            total = result.next() ? result.getInt(1) : 0;
+                        }
+                    }
+                    List<MarketIndex.Listing> listings = new ArrayList<>();
+                    if (total > offset) {
+                        params.add(limit);
+                        params.add(offset);
+                        try (PreparedStatement statement = connection.prepareStatement("SELECT world, region, price, type, size_x, size_z FROM " + prefix + "listings" + where + order + " LIMIT ? OFFSET ?")) {
+                            bind(statement, params.toArray());
+                            try (ResultSet result = statement.executeQuery()) {
+                                while (result.next()) {
+                                    listings.add(new MarketIndex.Listing(result.getString(1), result.getString(2), result.getDouble(3),
+                                            result.getString(4), result.getInt(5), result.getInt(6)));
+                                }
+                            }
+                        }
+                    }
+                    future.complete(new MarketIndex.Result(listings, total));
+                } finally {
+                    release(connection);
+                }
+            } catch (SQLException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return Whether the storage is connected
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * Write all queued changes in the background
+     */
+    public void flush() {
+        if (!writeQueue.isEmpty()) {
+            io.execute(this::writeQueued);
+        }
+    }
+
+    /**
+     * Write all queued changes, stop the threads and close the connections
+     */
+    public void close() {
+        queries.shutdown();
+        io.execute(this::writeQueued);
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write all changes to the market storage in time!");
+            }
+            queries.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        connected = false;
+        List<Write> remaining = new ArrayList<>();
+        Write write;
+        while ((write = writeQueue.poll()) != null) {
+            remaining.add(write);
+        }
+        storeNotificationsLocally(remaining);
+        Connection connection;
+        while ((connection = pool.poll()) != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {}
+        }
+    }
+
+    private void queue(String sql, Object... params) {
+        if (failed) {
+            return;
+        }
+        writeQueue.add(new Write(sql, params));
+    }
+
+    /**
+     * Write the queued changes in one transaction. Consecutive writes with the same statement are sent as one batch,
+     * the order of the writes is kept so that e.g. a delete and a later insert of the same listing don't get swapped.
+     */
+    private void writeQueued() {
+        if (!connected || writeQueue.isEmpty()) {
+            return;
+        }
+        List<Write> batch = new ArrayList<>();
+        Write write;
+        while ((write = writeQueue.poll()) != null) {
+            batch.add(write);
+        }
+        Connection connection = null;
+        try {
+            connection = borrow();
+            connection.setAutoCommit(false);
+            Map<String, PreparedStatement> statements = new HashMap<>();
+            try {
+                PreparedStatement current = null;
+                for (Write w : batch) {
+                    PreparedStatement statement = statements.get(w.sql);
+                    if (statement == null) {
+                        statement = connection.prepareStatement(w.sql);
+                        statements.put(w.sql, statement);
+                    }
+                    if (current != null && current != statement) {
+                        current.executeBatch();
+                    }
+                    bind(statement, w.params);
+                    statement.addBatch();
+                    current = statement;
+                }
+                if (current != null) {
+                    current.executeBatch();
+                }
+                connection.commit();
+            } finally {
+                for (PreparedStatement statement : statements.values()) {
+                    statement.close();
+                }
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error while writing " + batch.size() + " changes to the market storage! They are lost.", e);
+            storeNotificationsLocally(batch);
+            if (connection != null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ignored) {}
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.setAutoCommit(true);
+                } catch (SQLException ignored) {}
+                release(connection);
+            }
+        }
+    }
+
+    /**
+     * Hand notifications that couldn't be written to the database over to the local message store
+     * so that offline players still get them when they join this server
+     * @param writes The writes that weren't written
+     */
+    private void storeNotificationsLocally(List<Write> writes) {
+        String notificationInsert = "INSERT INTO " + prefix + "notifications ";
+        for (Write w : writes) {
+            if (w.sql.startsWith(notificationInsert)) {
+                plugin.getMessageStore().add(UUID.fromString((String) w.params[0]), (String) w.params[1]);
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[] params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            statement.setObject(i + 1, params[i]);
+        }
+    }
+
+    private Connection open() throws SQLException {
+        return user != null ? DriverManager.getConnection(url, user, password) : DriverManager.getConnection(url);
+    }
+
+    /**
+     * Take a connection from the pool, waiting for one to be returned if all are in use
+     * @return A valid connection
+     * @throws SQLException If no connection is free in time or a new one couldn't be opened
+     */
+    private Connection borrow() throws SQLException {
+        Connection connection;
+        try {
+            connection = pool.poll(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", e);
+        }
+        if (connection == null) {
+            throw new SQLException("No free connection available");
+        }
+        try {
+            if (connection.isValid(1)) {
+                return connection;
+            }
+            connection.close();
+        } catch (SQLException ignored) {}
+        try {
+            return open();
+        } catch (SQLException e) {
+            // Keep the pool at its size, the dead connection gets replaced on the next try
+            pool.offer(connection);
+            throw e;
+        }
+    }
+
+    private void release(Connection connection) {
+        pool.offer(connection);
+    }
+
+    private static class Write {
+        private final String sql;
+        private final Object[] params;
+
+        private Write(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+/**
+ * Disk-backed store for messages to players that weren't online when they should've received them.
+ * Messages are appended to one file per player in batches and all file access happens on a separate thread.
+ */
+public class MessageStore {
+    private final PlotSigns plugin;
+    private final File folder;
+    private final ExecutorService io;
+
+    /**
+     * Players that have messages stored on the disk or in the write queue
+     */
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final Queue<Message> writeQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Amount of messages in each player's file, only accessed from the io thread
+     */
+    private final Map<UUID, Integer> fileSizes = new HashMap<>();
+
+    private volatile boolean loaded = false;
+    private volatile int maxMessages = 100;
+
+    public MessageStore(PlotSigns plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "messages");
+        this.io = Executors.newSingleThreadExecutor(r -> new Thread(r, plugin.getName() + " Messages"));
+    }
+
+    /**
+     * Find the players that have stored messages
+     */
+    public void load() {
+        io.execute(() -> {
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(".txt"));
+            if (files != null) {
+                for (File file : files) {
+                    try {
+                        pending.add(UUID.fromString(file.getName().substring(0, file.getName().length() - 4)));
+                    } catch (IllegalArgumentException e) {
+                        plugin.getLogger().log(Level.WARNING, "Invalid message file " + file);
+                    }
+                }
+            }
+            loaded = true;
+        });
+    }
+
+    /**
+     * Set how many messages are kept per player. Older ones are dropped when the files get compacted.
+     * @param maxMessages The maximum amount of messages
+     */
+    public void setMaxMessages(int maxMessages) {
+        this.maxMessages = maxMessages;
+    }
+
+    /**
+     * Store a message for a player. It is written to the disk with the next flush.
+     * @param playerId  The UUID of the player
+     * @param message   The message
+     */
+    public void add(UUID playerId, String message) {
+        pending.add(playerId);
+        writeQueue.add(new Message(playerId, message));
+    }
+
+    /**
+     * Check whether a player might have stored messages
+     * @param playerId  The UUID of the player
+     * @return Whether there are messages
+     */
+    public boolean hasMessages(UUID playerId) {
+        return !loaded || pending.contains(playerId);
+    }
+
+    /**
+     * Get the stored messages of a player without removing them. This waits for the io thread to read the file.
+     * @param playerId  The UUID of the player
+     * @return The messages, empty if there are none
+     */
+    public List<String> get(UUID playerId) {
+        if (!hasMessages(playerId)) {
+            return Collections.emptyList();
+        }
+        try {
+            return io.submit(() -> {
+                writeQueued();
+                return readFile(playerId);
+            }).get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException | RejectedExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error while reading stored messages of " + playerId, e);
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Remove all stored messages of a player without sending them
+     * @param playerId  The UUID of the player
+     */
+    public void remove(UUID playerId) {
+        if (!hasMessages(playerId)) {
+            return;
+        }
+        io.execute(() -> {
+            writeQueued();
+            read(playerId);
+        });
+    }
+
+    /**
+     * Write all queued messages to the disk
+     */
+    public void flush() {
+        if (!writeQueue.isEmpty()) {
+            io.execute(this::writeQueued);
+        }
+    }
+
+    /**
+     * Load the stored messages of a player, send them to the player and remove them from the store
+     * @param player The player
+     */
+    public void deliver(Player player) {
+        if (!hasMessages(player.getUniqueId())) {
+            return;
+        }
+        io.execute(() -> {
+            writeQueued();
+            List<String> messages = read(player.getUniqueId());
+            if (messages.isEmpty()) {
+                return;
+            }
+            try {
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    if (player.isOnline()) {
+                        for (String message : messages) {
+                            player.sendMessage(message);
+                        }
+                    } else {
+                        for (String message : messages) {
+                            add(player.getUniqueId(), message);
+                        }
+                    }
+                });
+            } catch (IllegalPluginAccessException e) {
+                // Plugin is disabling, write them back
+                for (String message : messages) {
+                    add(player.getUniqueId(), message);
+                }
+                writeQueued();
+            }
+        });
+    }
+
+    /**
+     * Write all queued messages and stop the io thread
+     */
+    public void close() {
+        io.execute(this::writeQueued);
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write all stored messages in time!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeQueued() {
+        Map<UUID, List<String>> batch = new LinkedHashMap<>();
+        Message message;
+        while ((message = writeQueue.poll()) != null) {
+            batch.computeIfAbsent(message.playerId, id -> new ArrayList<>()).add(escape(message.message));
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        folder.mkdirs();
+        for (Map.Entry<UUID, List<String>> entry : batch.entrySet()) {
+            File file = getFile(entry.getKey());
+            try {
+                int size = getFileSize(entry.getKey(), file) + entry.getValue().size();
+                Files.write(file.toPath(), entry.getValue(), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (size > maxMessages * 2) {
+                    size = compact(file);
+                }
+                fileSizes.put(entry.getKey(), size);
+                // Make sure the player is still marked even if their messages were delivered while these were queued
+                pending.add(entry.getKey());
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while storing messages for " + entry.getKey(), e);
+                fileSizes.remove(entry.getKey());
+            }
+        }
+    }
+
+    private int getFileSize(UUID playerId, File file) throws IOException {
+        Integer size = fileSizes.get(playerId);
+        if (size == null) {
+            size = file.exists() ? Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() : 0;
+        }
+        return size;
+    }
+
+    /**
+     * Only keep the newest messages in a file
+     * @param file The file
+     * @return The amount of messages in the compacted file
+     * @throws IOException when the file couldn't be read or written
+     */
+    private int compact(File file) throws IOException {
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (lines.size() <= maxMessages) {
+            return lines.size();
+        }
+        List<String> kept = new ArrayList<>(lines.subList(lines.size() - maxMessages, lines.size()));
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), kept, StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return kept.size();
+    }
+
+    private List<String> read(UUID playerId) {
+        List<String> messages = readFile(playerId);
+        pending.remove(playerId);
+        fileSizes.remove(playerId);
+        try {
+            Files.deleteIfExists(getFile(playerId).toPath());
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error while deleting stored messages of " + playerId, e);
+        }
+        return messages;
+    }
+
+    private List<String> readFile(UUID playerId) {
+        List<String> messages = new ArrayList<>();
+        File file = getFile(playerId);
+        if (!file.exists()) {
+            return messages;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                messages.add(unescape(line));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error while reading stored messages of " + playerId, e);
+        }
+        return messages;
+    }
+
+    private File getFile(UUID playerId) {
+        return new File(folder, playerId + ".txt");
+    }
+
+    private static String escape(String message) {
+        return message.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String unescape(String line) {
+        StringBuilder sb = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char next = line.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static class Message {
+        private final UUID playerId;
+        private final String message;
+
+        private Message(UUID playerId, String message) {
+            this.playerId = playerId;
+            this.message = message;
+        }
+    }
+}
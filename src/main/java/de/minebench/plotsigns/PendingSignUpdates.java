@@ -0,0 +1,192 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.Chunk;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Sign updates for signs in unloaded chunks that should be applied once the chunk gets loaded
+ */
+public class PendingSignUpdates {
+    private final PlotSigns plugin;
+    private final File file;
+    private final Object fileLock = new Object();
+    /**
+     * Version of the last snapshot that was taken and of the last one that was written,
+     * async writes of older snapshots that run after a newer one are skipped
+     */
+    private final AtomicLong savedVersion = new AtomicLong();
+    private long writtenVersion = 0;
+
+    /**
+     * World name -> chunk key -> sign location -> update
+     */
+    private final Map<String, Map<Long, Map<SignLocation, Update>>> updates = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = false;
+
+    public PendingSignUpdates(PlotSigns plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "pending-signs.yml");
+    }
+
+    /**
+     * Load the pending updates from the disk
+     */
+    public synchronized void load() {
+        updates.clear();
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        for (Map<?, ?> entry : config.getMapList("updates")) {
+            try {
+                SignLocation location = SignLocation.deserialize(String.valueOf(entry.get("location")));
+                String regionId = String.valueOf(entry.get("region"));
+                List<?> lines = (List<?>) entry.get("lines");
+                String[] signLines = new String[lines.size()];
+                for (int i = 0; i < signLines.length; i++) {
+                    signLines[i] = String.valueOf(lines.get(i));
+                }
+                add(location, regionId, signLines);
+            } catch (IllegalArgumentException | ClassCastException | NullPointerException e) {
+                plugin.getLogger().log(Level.WARNING, "Invalid pending sign update " + entry + ": " + e.getMessage());
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Write the pending updates to the disk if they changed
+     * @param async Whether the file should be written asynchronously
+     */
+    public void save(boolean async) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        List<Map<String, Object>> entries = new ArrayList<>();
+        synchronized (this) {
+            for (Map<Long, Map<SignLocation, Update>> chunks : updates.values()) {
+                for (Map<SignLocation, Update> chunkUpdates : chunks.values()) {
+                    for (Map.Entry<SignLocation, Update> update : chunkUpdates.entrySet()) {
+                        Map<String, Object> entry = new LinkedHashMap<>();
+                        entry.put("location", update.getKey().serialize());
+                        entry.put("region", update.getValue().getRegionId());
+                        entry.put("lines", Arrays.asList(update.getValue().getLines()));
+                        entries.add(entry);
+                    }
+                }
+            }
+        }
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("updates", entries);
+        String data = config.saveToString();
+        long version = savedVersion.incrementAndGet();
+        if (async) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(data, version));
+        } else {
+            write(data, version);
+        }
+    }
+
+    private void write(String data, long version) {
+        synchronized (fileLock) {
+            if (version <= writtenVersion) {
+                // A newer snapshot was already written
+                return;
+            }
+            try {
+                PlotSigns.writeFile(file, data);
+                writtenVersion = version;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while saving the pending sign updates to " + file, e);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Queue an update for a sign. This replaces any update that was queued for that sign before.
+     * @param location  The location of the sign
+     * @param regionId  The region that the sign needs to be bound to for the update to apply
+     * @param lines     The lines to write
+     */
+    public synchronized void add(SignLocation location, String regionId, String[] lines) {
+        updates.computeIfAbsent(location.getWorld(), w -> new HashMap<>())
+                .computeIfAbsent(getChunkKey(location.getChunkX(), location.getChunkZ()), c -> new HashMap<>())
+                .put(location, new Update(regionId, lines));
+        dirty = true;
+    }
+
+    /**
+     * Remove all pending updates of a chunk
+     * @param chunk The chunk
+     * @return The pending updates or null if there were none
+     */
+    public synchronized Map<SignLocation, Update> drain(Chunk chunk) {
+        Map<Long, Map<SignLocation, Update>> chunks = updates.get(chunk.getWorld().getName());
+        if (chunks == null) {
+            return null;
+        }
+        Map<SignLocation, Update> chunkUpdates = chunks.remove(getChunkKey(chunk.getX(), chunk.getZ()));
+        if (chunkUpdates != null) {
+            if (chunks.isEmpty()) {
+                updates.remove(chunk.getWorld().getName());
+            }
+            dirty = true;
+        }
+        return chunkUpdates;
+    }
+
+    private static long getChunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    public static class Update {
+        private final String regionId;
+        private final String[] lines;
+
+        public Update(String regionId, String[] lines) {
+            this.regionId = regionId;
+            this.lines = lines;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+
+        public String[] getLines() {
+            return lines;
+        }
+    }
+}
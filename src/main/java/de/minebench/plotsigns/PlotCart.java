@@ -0,0 +1,147 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The regions that players have collected to buy them together with one checkout.
+ * Only accessed from the main thread.
+ */
+public class PlotCart {
+    private final Map<UUID, Map<String, Item>> carts = new HashMap<>();
+
+    private int maxSize = 16;
+
+    /**
+     * @param maxSize How many regions a player can have in the cart at once
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Add a region to the cart of a player
+     * @param playerId  The UUID of the player
+     * @param world     The name of the world the region is in
+     * @param regionId  The id of the region
+     * @return Whether the region was added, false if it was already in the cart or the cart is full
+     */
+    public boolean add(UUID playerId, String world, String regionId) {
+        Map<String, Item> cart = carts.computeIfAbsent(playerId, id -> new LinkedHashMap<>());
+        String key = getKey(world, regionId);
+        if (cart.containsKey(key) || cart.size() >= maxSize) {
+            return false;
+        }
+        cart.put(key, new Item(world, regionId));
+        return true;
+    }
+
+    /**
+     * Check whether a region is in the cart of a player
+     * @param playerId  The UUID of the player
+     * @param world     The name of the world the region is in
+     * @param regionId  The id of the region
+     * @return Whether it is in the cart
+     */
+    public boolean contains(UUID playerId, String world, String regionId) {
+        Map<String, Item> cart = carts.get(playerId);
+        return cart != null && cart.containsKey(getKey(world, regionId));
+    }
+
+    /**
+     * Remove a region from the cart of a player
+     * @param playerId  The UUID of the player
+     * @param world     The name of the world the region is in
+     * @param regionId  The id of the region
+     * @return Whether the region was in the cart
+     */
+    public boolean remove(UUID playerId, String world, String regionId) {
+        Map<String, Item> cart = carts.get(playerId);
+        if (cart == null || cart.remove(getKey(world, regionId)) == null) {
+            return false;
+        }
+        if (cart.isEmpty()) {
+            carts.remove(playerId);
+        }
+        return true;
+    }
+
+    /**
+     * Get the regions in the cart of a player in the order they were added
+     * @param playerId  The UUID of the player
+     * @return A copy of the items in the cart
+     */
+    public List<Item> get(UUID playerId) {
+        Map<String, Item> cart = carts.get(playerId);
+        return cart != null ? new ArrayList<>(cart.values()) : Collections.emptyList();
+    }
+
+    /**
+     * Remove several regions from the cart of a player, e.g. after they were bought
+     * @param playerId  The UUID of the player
+     * @param items     The items to remove
+     */
+    public void removeAll(UUID playerId, Collection<Item> items) {
+        for (Item item : items) {
+            remove(playerId, item.getWorld(), item.getRegionId());
+        }
+    }
+
+    /**
+     * Empty the cart of a player
+     * @param playerId  The UUID of the player
+     */
+    public void clear(UUID playerId) {
+        carts.remove(playerId);
+    }
+
+    private static String getKey(String world, String regionId) {
+        return world + " " + regionId;
+    }
+
+    public static class Item {
+        private final String world;
+        private final String regionId;
+
+        private Item(String world, String regionId) {
+            this.world = world;
+            this.regionId = regionId;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+    }
+}
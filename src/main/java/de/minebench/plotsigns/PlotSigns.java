@@ -25,6 +25,7 @@ import com.sk89q.worldguard.WorldGuard;
 import com.sk89q.worldguard.protection.flags.BooleanFlag;
 import com.sk89q.worldguard.protection.flags.DoubleFlag;
 import com.sk89q.worldguard.protection.flags.Flag;
+import com.sk89q.worldguard.protection.flags.IntegerFlag;
 import com.sk89q.worldguard.protection.flags.StringFlag;
 import com.sk89q.worldguard.protection.flags.registry.FlagConflictException;
 import com.sk89q.worldguard.protection.managers.RegionManager;
@@ -38,31 +39,78 @@ import org.bukkit.OfflinePlayer;
 import org.bukkit.World;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Sign;
+import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.IllegalPluginAccessException;
 import org.bukkit.plugin.RegisteredServiceProvider;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.text.SimpleDateFormat;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 public final class PlotSigns extends JavaPlugin {
 
     private Economy economy;
-    private String signSellLine;
-    private ArrayList<String> sellFormat;
+    private volatile Settings settings;
 
     private Cache<UUID, String[]> writeIntents = CacheBuilder.newBuilder().expireAfterWrite(10, TimeUnit.SECONDS).build();
-    private Cache<UUID, List<String>> messageIntents = CacheBuilder.newBuilder().maximumSize(1000).build();
+
+    private final TypeCountIndex typeCountIndex = new TypeCountIndex();
+    private final MarketIndex marketIndex = new MarketIndex();
+    private final RegionLookup regionLookup = new RegionLookup(this);
+    private final ClickLimiter clickLimiter = new ClickLimiter();
+    private final PlotCart plotCart = new PlotCart();
+    private final Treasury treasury = new Treasury(this);
+    private int treasuryFlushCounter = 0;
+    private final Stats stats = new Stats();
+    private int statsDumpCounter = 0;
+    private int typeCountReconcileCounter = 0;
+    private final AtomicBoolean typeCountReconciling = new AtomicBoolean(false);
+    private int regionIndexSyncCounter = 0;
+    private final AtomicBoolean regionIndexSyncing = new AtomicBoolean(false);
+    private final RegionReservations reservations = new RegionReservations(30);
+    private final TypeLimitCache typeLimitCache = new TypeLimitCache();
+    private ExecutorService economyExecutor;
+    private SignRegistry signRegistry;
+    private PendingSignUpdates pendingSignUpdates;
+    private MessageStore messageStore;
+    private PurchaseJournal purchaseJournal;
+    private SignUpdateScheduler signUpdateScheduler;
+    private SignResync signResync;
+    private LeaseManager leaseManager;
+    private MarketStorage marketStorage = null;
 
     public static NamespacedKey SIGN_REGION_KEY;
     public static StringFlag PLOT_TYPE_FLAG = new StringFlag("plot-type");
     public static BooleanFlag BUYABLE_FLAG = new BooleanFlag("buyable");
     public static DoubleFlag PRICE_FLAG = new DoubleFlag("price");
+    public static IntegerFlag RENT_PERIOD_FLAG = new IntegerFlag("rent-period");
 
     @Override
     public void onLoad() {
@@ -70,6 +118,7 @@ public final class PlotSigns extends JavaPlugin {
         PLOT_TYPE_FLAG = registerOrGetFlag(PLOT_TYPE_FLAG);
         BUYABLE_FLAG = registerOrGetFlag(BUYABLE_FLAG);
         PRICE_FLAG = registerOrGetFlag(PRICE_FLAG);
+        RENT_PERIOD_FLAG = registerOrGetFlag(RENT_PERIOD_FLAG);
     }
 
     private <T extends Flag> T registerOrGetFlag(T flag) {
@@ -83,15 +132,179 @@ public final class PlotSigns extends JavaPlugin {
 
     @Override
     public void onEnable() {
+        messageStore = new MessageStore(this);
+        purchaseJournal = new PurchaseJournal(this);
+        signUpdateScheduler = new SignUpdateScheduler(this);
         loadConfig();
+        purchaseJournal.load();
+        signRegistry = new SignRegistry(this);
+        signRegistry.load();
+        pendingSignUpdates = new PendingSignUpdates(this);
+        pendingSignUpdates.load();
+        signResync = new SignResync(this);
+        leaseManager = new LeaseManager(this);
+        leaseManager.load();
+        messageStore.load();
+        if (!"none".equals(settings.getStorageType())) {
+            try {
+                marketStorage = new MarketStorage(this, settings);
+                marketStorage.connect();
+            } catch (IllegalArgumentException e) {
+                getLogger().log(Level.SEVERE, e.getMessage());
+            }
+        }
         if (!setupEconomy()) {
             getLogger().log(Level.SEVERE, "Failed to hook into Vault! The plugin will not run without it!");
             getServer().getPluginManager().disablePlugin(this);
             return;
         }
+        // Economy calls are done one after another to not run into issues with economy plugins that aren't thread-safe
+        economyExecutor = Executors.newSingleThreadExecutor(r -> new Thread(r, getName() + " Economy"));
         getServer().getPluginManager().registerEvents(new SignListener(this), this);
         getServer().getPluginManager().registerEvents(new JoinListener(this), this);
-        getCommand("plotsigns").setExecutor(new PlotSignsCommand(this));
+        getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
+        getServer().getPluginManager().registerEvents(new WorldListener(this), this);
+        indexWorlds();
+        // Wait for all plugins and worlds to be loaded before touching the economy and regions
+        getServer().getScheduler().runTask(this, () -> {
+            recoverPurchases();
+            signResync.resume();
+        });
+        PlotSignsCommand command = new PlotSignsCommand(this);
+        getCommand("plotsigns").setExecutor(command);
+        getCommand("plotsigns").setTabCompleter(command);
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            signRegistry.save(true);
+            pendingSignUpdates.save(true);
+            leaseManager.save(true);
+        }, 20 * 60, 20 * 60);
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            messageStore.flush();
+            if (marketStorage != null) {
+                marketStorage.flush();
+            }
+        }, 20, 20);
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            // The resync only gets what the queued sign updates left of the budget
+            long remaining = signUpdateScheduler.tick();
+            signResync.tick(remaining);
+        }, 1, 1);
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            long interval = settings.getStatsDumpInterval();
+            if (interval > 0 && (++statsDumpCounter) >= interval) {
+                statsDumpCounter = 0;
+                dumpStats();
+            }
+            long flushInterval = settings.getTreasuryFlushInterval();
+            if (flushInterval > 0 && (++treasuryFlushCounter) >= flushInterval) {
+                treasuryFlushCounter = 0;
+                flushTreasury();
+            }
+            long reconcileInterval = settings.getTypeCountVerifyInterval();
+            if (reconcileInterval > 0 && (++typeCountReconcileCounter) >= reconcileInterval) {
+                typeCountReconcileCounter = 0;
+                reconcileTypeCounts();
+            }
+            long syncInterval = settings.getRegionIndexSyncInterval();
+            if (syncInterval > 0 && (++regionIndexSyncCounter) >= syncInterval) {
+                regionIndexSyncCounter = 0;
+                syncRegionIndex();
+            }
+        }, 20, 20);
+    }
+
+    /**
+     * Compare the indexed region ids with the regions of all worlds in the background
+     * to pick up regions that were created or removed with WorldGuard commands
+     */
+    private void syncRegionIndex() {
+        if (!regionIndexSyncing.compareAndSet(false, true)) {
+            return;
+        }
+        Map<String, RegionManager> managers = new LinkedHashMap<>();
+        for (World world : getServer().getWorlds()) {
+            RegionManager rm = getRegionManager(world);
+            if (rm != null) {
+                managers.put(world.getName(), rm);
+            }
+        }
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                for (Map.Entry<String, RegionManager> entry : managers.entrySet()) {
+                    regionLookup.sync(entry.getKey(), entry.getValue().getRegions().keySet());
+                }
+            } finally {
+                regionIndexSyncing.set(false);
+            }
+        });
+    }
+
+    /**
+     * Compare the type count index with all regions in the background to pick up
+     * regions that players got outside of the plugin (e.g. via /rg addowner)
+     */
+    private void reconcileTypeCounts() {
+        if (!typeCountReconciling.compareAndSet(false, true)) {
+            return;
+        }
+        Map<String, RegionManager> managers = new LinkedHashMap<>();
+        for (World world : getServer().getWorlds()) {
+            RegionManager rm = getRegionManager(world);
+            if (rm != null) {
+                managers.put(world.getName(), rm);
+            }
+        }
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            try {
+                for (Map.Entry<String, RegionManager> entry : managers.entrySet()) {
+                    typeCountIndex.reconcile(entry.getKey(), entry.getValue().getRegions().values());
+                }
+            } finally {
+                typeCountReconciling.set(false);
+            }
+        });
+    }
+
+    @Override
+    public void onDisable() {
+        if (economyExecutor != null) {
+            // Deposit everything that was collected before the economy thread stops
+            flushTreasury();
+            economyExecutor.shutdown();
+            try {
+                if (!economyExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    getLogger().log(Level.SEVERE, "Economy tasks did not finish in time!");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (leaseManager != null) {
+            leaseManager.stop();
+            leaseManager.save(false);
+        }
+        if (purchaseJournal != null) {
+            purchaseJournal.close();
+        }
+        if (marketStorage != null) {
+            marketStorage.close();
+        }
+        if (signResync != null) {
+            signResync.pause();
+        }
+        if (signUpdateScheduler != null && signRegistry != null) {
+            signUpdateScheduler.runAll();
+        }
+        if (signRegistry != null) {
+            signRegistry.save(false);
+        }
+        if (pendingSignUpdates != null) {
+            pendingSignUpdates.save(false);
+        }
+        // Closed last as the shutdown of the other parts can still produce messages for offline players
+        if (messageStore != null) {
+            messageStore.close();
+        }
     }
 
     private boolean setupEconomy() {
@@ -106,20 +319,75 @@ public final class PlotSigns extends JavaPlugin {
         return economy != null;
     }
 
+    /**
+     * (Re-)build the indices of the regions in all loaded worlds
+     */
+    void indexWorlds() {
+        for (World world : getServer().getWorlds()) {
+            indexWorld(world);
+        }
+    }
+
+    /**
+     * (Re-)build the indices of the regions in a world
+     * @param world The world
+     */
+    void indexWorld(World world) {
+        RegionManager rm = getRegionManager(world);
+        if (rm != null) {
+            typeCountIndex.rebuild(world.getName(), rm);
+            marketIndex.rebuild(world.getName(), rm);
+            regionLookup.rebuild(world.getName(), rm);
+            if (marketStorage != null) {
+                marketStorage.replaceListings(world.getName(), marketIndex.getListings(world.getName()));
+            }
+        } else {
+            typeCountIndex.clear(world.getName());
+            marketIndex.clear(world.getName());
+            regionLookup.clear(world.getName());
+            if (marketStorage != null) {
+                marketStorage.replaceListings(world.getName(), Collections.emptyList());
+            }
+        }
+    }
+
     public void loadConfig() {
         saveDefaultConfig();
         reloadConfig();
-        signSellLine = getConfig().getString("sign.sell");
-        sellFormat = new ArrayList<>();
-        for (String line : getConfig().getStringList("sign.sellformat")) {
-            String format = ChatColor.translateAlternateColorCodes('&', line);
-            if (ChatColor.stripColor(format).isEmpty()) {
-                sellFormat.add(format);
-            } else {
-                sellFormat.add("");
-                getLogger().log(Level.SEVERE, "Format strings can only contain color/formatting codes! '" + line + "' contains '" + ChatColor.stripColor(format) + "'!");
+        applySettings(new Settings(getConfig(), getLogger()));
+    }
+
+    /**
+     * Reload the config without parsing the file on the main thread
+     * @param callback Run on the main thread after the new config was applied
+     */
+    public void loadConfigAsync(Runnable callback) {
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            saveDefaultConfig();
+            YamlConfiguration config = YamlConfiguration.loadConfiguration(new File(getDataFolder(), "config.yml"));
+            InputStream defaults = getResource("config.yml");
+            if (defaults != null) {
+                config.setDefaults(YamlConfiguration.loadConfiguration(new InputStreamReader(defaults, StandardCharsets.UTF_8)));
             }
-        }
+            Settings settings = new Settings(config, getLogger());
+            getServer().getScheduler().runTask(this, () -> {
+                applySettings(settings);
+                callback.run();
+            });
+        });
+    }
+
+    private void applySettings(Settings settings) {
+        this.settings = settings;
+        reservations.setTimeout(settings.getReservationTimeout());
+        messageStore.setMaxMessages(settings.getMaxMessagesPerPlayer());
+        signUpdateScheduler.setBudget(settings.getSignUpdateBudget());
+        purchaseJournal.setLimits(settings.getJournalMaxFileSize(), settings.getJournalMaxFiles());
+        typeLimitCache.setDuration(settings.getTypeLimitCacheDuration());
+        treasury.setup(settings.getTreasuryAccount(), settings.getTreasuryFlushInterval() > 0);
+        clickLimiter.setLimits(settings.getSignClickRate(), settings.getSignClickBurst(), settings.getSignClickCooldown());
+        plotCart.setMaxSize(settings.getCartMaxSize());
+        typeLimitCache.clear();
     }
 
     /**
@@ -130,17 +398,183 @@ public final class PlotSigns extends JavaPlugin {
      * @throws IllegalArgumentException If the region's id or the permission string is longer than 15 chars
      */
     public void makeRegionBuyable(ProtectedRegion region, double price, String type) throws IllegalArgumentException {
+        makeRegionBuyable(getWorldName(region), region, price, type);
+    }
+
+    /**
+     * Make a WorldGuard region buyable
+     * @param world The name of the world the region is in
+     * @param region The region to make buyable
+     * @param price The price the region should cost
+     * @param type The right for the max region count, use null or empty string if it shouldn't be limited
+     * @throws IllegalArgumentException If the region's id or the permission string is longer than 15 chars
+     */
+    void makeRegionBuyable(String world, ProtectedRegion region, double price, String type) throws IllegalArgumentException {
         if (type != null && type.length() > 15)
             throw new IllegalArgumentException("Type string can't be longer than 15 chars! (It might not fit on a sign)");
         if (region.getId().length() > 15)
             throw new IllegalArgumentException("The region's ID can't be longer than 15 chars! (It might not fit on a sign)");
+        if (world != null && leaseManager.getLease(world, region.getId()) != null)
+            throw new IllegalArgumentException("The region is currently rented out!");
         region.setFlag(BUYABLE_FLAG, true);
         region.setFlag(PRICE_FLAG, price);
         region.setFlag(PLOT_TYPE_FLAG, type == null || type.isEmpty() ? null : type);
+        region.setFlag(RENT_PERIOD_FLAG, null);
+
+        if (world != null) {
+            updateIndices(world, region);
+        }
     }
 
     /**
-     * Buy a region for a player
+     * Make a WorldGuard region rentable. Buying it creates a lease that gets renewed every period.
+     * @param region The region to make rentable
+     * @param price The price per period
+     * @param type The right for the max region count, use null or empty string if it shouldn't be limited
+     * @param period The length of a period in minutes
+     * @throws IllegalArgumentException If the region's id or the permission string is longer than 15 chars or the period is invalid
+     */
+    public void makeRegionRentable(ProtectedRegion region, double price, String type, int period) throws IllegalArgumentException {
+        makeRegionRentable(getWorldName(region), region, price, type, period);
+    }
+
+    /**
+     * Make a WorldGuard region rentable. Buying it creates a lease that gets renewed every period.
+     * @param world The name of the world the region is in
+     * @param region The region to make rentable
+     * @param price The price per period
+     * @param type The right for the max region count, use null or empty string if it shouldn't be limited
+     * @param period The length of a period in minutes
+     * @throws IllegalArgumentException If the region's id or the permission string is longer than 15 chars or the period is invalid
+     */
+    void makeRegionRentable(String world, ProtectedRegion region, double price, String type, int period) throws IllegalArgumentException {
+        if (period <= 0)
+            throw new IllegalArgumentException("The rent period has to be positive!");
+        makeRegionBuyable(world, region, price, type);
+        region.setFlag(RENT_PERIOD_FLAG, period);
+    }
+
+    /**
+     * Buy a region for a player. Depending on the economy.async config option the
+     * economy calls will be run on a separate thread and the region is reserved in the meantime.
+     * @param player The player that should buy the region
+     * @param region The region to buy
+     * @param price The price of the region
+     * @param type The region's type for the count
+     * @return A future that gets completed on the main thread once the region was bought
+     *         or exceptionally with a {@link BuyException} if the player can't buy it
+     */
+    public CompletableFuture<Void> purchaseRegion(Player player, ProtectedRegion region, double price, String type) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        String world = player.getWorld().getName();
+        long token = reservations.reserve(world, region.getId(), player.getUniqueId());
+        if (token == RegionReservations.ALREADY_RESERVED) {
+            // Double click, the first purchase is still running
+            future.completeExceptionally(new BuyException(getLang("buy.already-buying", "region", region.getId())));
+            return future;
+        } else if (token == RegionReservations.RESERVED_BY_OTHER) {
+            future.completeExceptionally(new BuyException(getLang("buy.in-progress", "region", region.getId())));
+            return future;
+        }
+
+        if (!settings.isEconomyAsync()) {
+            try {
+                buyReservedRegion(player, region, price, type);
+                future.complete(null);
+            } catch (BuyException e) {
+                future.completeExceptionally(e);
+            } finally {
+                reservations.release(world, region.getId(), token);
+            }
+            return future;
+        }
+
+        try {
+            checkPurchase(player, player.getWorld(), region, type);
+        } catch (BuyException e) {
+            reservations.release(world, region.getId(), token);
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        long start = System.nanoTime();
+        future.whenComplete((v, e) -> stats.getBuy().recordSince(start));
+        List<UUID> owners = new ArrayList<>(region.getOwners().getUniqueIds());
+        double earnedPerOwner = getEarnedPerOwner(region, price);
+        PurchaseJournal.Transaction transaction = purchaseJournal.begin(player.getUniqueId(), player.getName(), world, region.getId(), price, type, owners, earnedPerOwner);
+        economyExecutor.execute(() -> {
+            try {
+                // Only move money once the purchase is on the disk
+                purchaseJournal.awaitWritten(transaction);
+                withdraw(player, region.getId(), price);
+            } catch (BuyException | IOException | RuntimeException e) {
+                if (!(e instanceof BuyException)) {
+                    getLogger().log(Level.SEVERE, "Error while withdrawing " + price + " from " + player.getName() + " for region " + region.getId(), e);
+                }
+                purchaseJournal.rollback(transaction, e.getMessage());
+                runSync(() -> {
+                    reservations.release(world, region.getId(), token);
+                    future.completeExceptionally(e instanceof BuyException ? e : new BuyException(e.getMessage()));
+                }, () -> {});
+                return;
+            }
+            purchaseJournal.withdrawn(transaction);
+
+            runSync(() -> {
+                try {
+                    if (!reservations.isValid(world, region.getId(), token)) {
+                        // The reservation timed out while the money was withdrawn, somebody else might be buying the region now
+                        throw new BuyException(getLang("buy.in-progress", "region", region.getId()));
+                    }
+                    // The player might have changed worlds while the money was withdrawn, the region is in the reserved one
+                    World regionWorld = getServer().getWorld(world);
+                    if (regionWorld == null) {
+                        throw new BuyException(getLang("error.world-not-supported", "world", world));
+                    }
+                    // The region or the player's other regions might have been changed while the money was withdrawn
+                    checkPurchase(player, regionWorld, region, type);
+                    Double currentPrice = region.getFlag(PRICE_FLAG);
+                    if (currentPrice == null || currentPrice != price) {
+                        throw new BuyException(getLang("buy.price-mismatch", "sign", String.valueOf(price), "region", String.valueOf(currentPrice)));
+                    }
+                    getLogger().log(Level.INFO, player.getName() + "/" + player.getUniqueId() + " bought region " + region.getId() + " for " + price + (type == null || type.isEmpty() ? "" : " Type: " + type));
+                    transferRegion(player.getUniqueId(), player.getName(), regionWorld, region, price, type);
+                    purchaseJournal.transferred(transaction);
+                } catch (BuyException e) {
+                    economyExecutor.execute(() -> refund(transaction, e.getMessage()));
+                    reservations.release(world, region.getId(), token);
+                    future.completeExceptionally(e);
+                    return;
+                } catch (RuntimeException e) {
+                    getLogger().log(Level.SEVERE, "Error while transferring region " + region.getId() + " to " + player.getName(), e);
+                    // The region might've been changed partially, check what needs to be undone
+                    resolvePurchase(transaction);
+                    reservations.release(world, region.getId(), token);
+                    future.completeExceptionally(new BuyException(e.getMessage()));
+                    return;
+                }
+                reservations.release(world, region.getId(), token);
+                future.complete(null);
+
+                economyExecutor.execute(() -> {
+                    payOwners(transaction);
+                    runSync(() -> {
+                        for (UUID ownerId : owners) {
+                            notifyOwner(ownerId, player.getName(), region.getId(), price, earnedPerOwner);
+                        }
+                    }, () -> {
+                        for (UUID ownerId : owners) {
+                            registerMessageIntent(ownerId, getSoldMessage(player.getName(), region.getId(), price, earnedPerOwner));
+                        }
+                    });
+                });
+            }, () -> refund(transaction, "Plugin was disabled"));
+        });
+        return future;
+    }
+
+    /**
+     * Buy a region for a player. The region is reserved while it is bought like with {@link #purchaseRegion(Player, ProtectedRegion, double, String)}.
      * @param player The player that should buy the region
      * @param region The region to buy
      * @param price The price of the region
@@ -148,55 +582,629 @@ public final class PlotSigns extends JavaPlugin {
      * @throws BuyException if the player can't buy the region for whatever reason
      */
     public void buyRegion(Player player, ProtectedRegion region, double price, String type) throws BuyException {
-        if (region.getFlag(BUYABLE_FLAG) == null || !region.getFlag(BUYABLE_FLAG)) {
-            throw new BuyException(getLang("buy.not-for-sale", "region", region.getId()));
+        String world = player.getWorld().getName();
+        // Reserve the region so that this can't race with an asynchronous purchase of it
+        long token = reservations.reserve(world, region.getId(), player.getUniqueId());
+        if (token == RegionReservations.ALREADY_RESERVED) {
+            throw new BuyException(getLang("buy.already-buying", "region", region.getId()));
+        } else if (token == RegionReservations.RESERVED_BY_OTHER) {
+            throw new BuyException(getLang("buy.in-progress", "region", region.getId()));
+        }
+        try {
+            buyReservedRegion(player, region, price, type);
+        } finally {
+            reservations.release(world, region.getId(), token);
         }
+    }
+
+    /**
+     * Buy a region for a player that was already reserved for them
+     * @param player The player that should buy the region
+     * @param region The region to buy
+     * @param price The price of the region
+     * @param type The region's type for the count
+     * @throws BuyException if the player can't buy the region for whatever reason
+     */
+    private void buyReservedRegion(Player player, ProtectedRegion region, double price, String type) throws BuyException {
+        long start = System.nanoTime();
+        try {
+            checkPurchase(player, player.getWorld(), region, type);
 
-        if (!getEconomy().has(player, price)) {
-            throw new BuyException(getLang("buy.not-enough-money", "region", region.getId(), "price", String.valueOf(price)));
+            if (!economyHas(player, price)) {
+                throw new BuyException(getLang("buy.not-enough-money", "region", region.getId(), "price", String.valueOf(price)));
+            }
+
+            double earnedPerOwner = getEarnedPerOwner(region, price);
+            List<UUID> owners = new ArrayList<>(region.getOwners().getUniqueIds());
+            PurchaseJournal.Transaction transaction = purchaseJournal.begin(player.getUniqueId(), player.getName(), player.getWorld().getName(), region.getId(), price, type, owners, earnedPerOwner);
+            try {
+                // Only move money once the purchase is on the disk, records that queue up meanwhile share the fsync
+                purchaseJournal.awaitWritten(transaction);
+            } catch (IOException e) {
+                getLogger().log(Level.SEVERE, "Error while writing the purchase of region " + region.getId() + " by " + player.getName() + " to the journal", e);
+                purchaseJournal.rollback(transaction, e.getMessage());
+                throw new BuyException(e.getMessage());
+            }
+
+            EconomyResponse withdraw = economyWithdraw(player, price);
+            if (!withdraw.transactionSuccess()) {
+                purchaseJournal.rollback(transaction, withdraw.errorMessage);
+                throw new BuyException(withdraw.errorMessage);
+            }
+            purchaseJournal.withdrawn(transaction);
+
+            getLogger().log(Level.INFO, player.getName() + "/" + player.getUniqueId() + " bought region " + region.getId() + " for " + price + (type == null || type.isEmpty() ? "" : " Type: " + type));
+
+            try {
+                transferRegion(player.getUniqueId(), player.getName(), player.getWorld(), region, price, type);
+                purchaseJournal.transferred(transaction);
+            } catch (RuntimeException e) {
+                getLogger().log(Level.SEVERE, "Error while transferring region " + region.getId() + " to " + player.getName(), e);
+                // The region might've been changed partially, check what needs to be undone
+                resolvePurchase(transaction);
+                throw new BuyException(e.getMessage());
+            }
+
+            payOwners(transaction);
+            for (UUID ownerId : owners) {
+                notifyOwner(ownerId, player.getName(), region.getId(), price, earnedPerOwner);
+            }
+        } finally {
+            stats.getBuy().recordSince(start);
         }
+    }
 
-        if (!checkTypeCount(player, player.getWorld(), type)) {
-            throw new BuyException(getLang("buy.maximum-type-count", "region", region.getId(), "type", type));
+    /**
+     * Buy several regions at once with a single withdrawal. Either all regions are bought or none
+     * as everything is checked before any money is moved. The regions are reserved while that happens.
+     * @param player    The player that should buy the regions
+     * @param world     The world that the regions are in
+     * @param regions   The regions to buy
+     * @return A future that gets completed on the main thread once the regions were bought
+     *         or exceptionally with a {@link BuyException} if the player can't buy them
+     */
+    public CompletableFuture<Void> checkout(Player player, World world, List<ProtectedRegion> regions) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (regions.isEmpty()) {
+            future.completeExceptionally(new BuyException(getLang("cart.empty")));
+            return future;
         }
 
-        double earnedPerOwner = price - getConfig().getDouble("tax.fixed", 0) - price * getConfig().getDouble("tax.share", 0);
-        if (region.getOwners().size() > 1) {
-            earnedPerOwner = earnedPerOwner / region.getOwners().size();
+        Map<String, Long> tokens = new LinkedHashMap<>();
+        Runnable release = () -> tokens.forEach((regionId, token) -> reservations.release(world.getName(), regionId, token));
+        for (ProtectedRegion region : regions) {
+            long token = reservations.reserve(world.getName(), region.getId(), player.getUniqueId());
+            if (token == RegionReservations.ALREADY_RESERVED || token == RegionReservations.RESERVED_BY_OTHER) {
+                release.run();
+                future.completeExceptionally(new BuyException(getLang(token == RegionReservations.ALREADY_RESERVED ? "buy.already-buying" : "buy.in-progress", "region", region.getId())));
+                return future;
+            }
+            tokens.put(region.getId(), token);
         }
-        earnedPerOwner = Math.floor(earnedPerOwner * 100) / 100; // Make sure to round down to the second decimal point
 
-        EconomyResponse withdraw = getEconomy().withdrawPlayer(player, price);
-        if (!withdraw.transactionSuccess()) {
-            throw new BuyException(withdraw.errorMessage);
+        try {
+            checkCheckout(player, world, regions);
+        } catch (BuyException e) {
+            release.run();
+            future.completeExceptionally(e);
+            return future;
         }
+        double total = 0;
+        for (ProtectedRegion region : regions) {
+            total += region.getFlag(PRICE_FLAG);
+        }
+        double totalPrice = Math.round(total * 100) / 100.0;
+        List<PurchaseJournal.Transaction> transactions = new ArrayList<>();
 
-        getLogger().log(Level.INFO, player.getName() + "/" + player.getUniqueId() + " bought region " + region.getId() + " for " + price + (type == null || type.isEmpty() ? "" : " Type: " + type));
+        long start = System.nanoTime();
+        future.whenComplete((v, e) -> stats.getBuy().recordSince(start));
+        for (ProtectedRegion region : regions) {
+            double price = region.getFlag(PRICE_FLAG);
+            transactions.add(purchaseJournal.begin(player.getUniqueId(), player.getName(), world.getName(), region.getId(), price,
+                    region.getFlag(PLOT_TYPE_FLAG), new ArrayList<>(region.getOwners().getUniqueIds()), getEarnedPerOwner(region, price)));
+        }
 
-        if (region.getOwners().size() > 0) {
-            for (UUID ownerId : region.getOwners().getUniqueIds()) {
-                OfflinePlayer owner = getServer().getOfflinePlayer(ownerId);
-                EconomyResponse deposit = getEconomy().depositPlayer(owner, earnedPerOwner);
-                if (!deposit.transactionSuccess()) {
-                    getLogger().log(Level.WARNING, "Error while depositing " + deposit.amount + " to " + owner.getName() + "/" + ownerId + " from region " + region.getId() + ". " + deposit.errorMessage);
-                } else {
-                    getLogger().log(Level.INFO, owner.getName() + "/" + ownerId + " received " + deposit.amount + " from sale of region " + region.getId() + ".");
+        if (!settings.isEconomyAsync()) {
+            try {
+                // Only move money once the purchases are on the disk, they are all written with the same fsync
+                for (PurchaseJournal.Transaction transaction : transactions) {
+                    purchaseJournal.awaitWritten(transaction);
+                }
+                withdraw(player, regions.size() + " plots", totalPrice);
+                transactions.forEach(purchaseJournal::withdrawn);
+                completeCheckout(player, world, regions, transactions);
+                future.complete(null);
+            } catch (IOException e) {
+                getLogger().log(Level.SEVERE, "Error while writing the purchase of " + regions.size() + " regions by " + player.getName() + " to the journal", e);
+                for (PurchaseJournal.Transaction transaction : transactions) {
+                    purchaseJournal.rollback(transaction, e.getMessage());
+                }
+                future.completeExceptionally(new BuyException(e.getMessage()));
+            } catch (BuyException e) {
+                for (PurchaseJournal.Transaction transaction : transactions) {
+                    if (!transaction.isWithdrawn()) {
+                        purchaseJournal.rollback(transaction, e.getMessage());
+                    }
+                }
+                future.completeExceptionally(e);
+            } finally {
+                release.run();
+            }
+            return future;
+        }
+
+        economyExecutor.execute(() -> {
+            try {
+                // Only move money once the purchases are on the disk
+                for (PurchaseJournal.Transaction transaction : transactions) {
+                    purchaseJournal.awaitWritten(transaction);
+                }
+                withdraw(player, regions.size() + " plots", totalPrice);
+            } catch (BuyException | IOException | RuntimeException e) {
+                if (!(e instanceof BuyException)) {
+                    getLogger().log(Level.SEVERE, "Error while withdrawing " + totalPrice + " from " + player.getName() + " for " + regions.size() + " regions", e);
+                }
+                for (PurchaseJournal.Transaction transaction : transactions) {
+                    purchaseJournal.rollback(transaction, e.getMessage());
+                }
+                runSync(() -> {
+                    release.run();
+                    future.completeExceptionally(e instanceof BuyException ? e : new BuyException(e.getMessage()));
+                }, () -> {});
+                return;
+            }
+            transactions.forEach(purchaseJournal::withdrawn);
+
+            runSync(() -> {
+                try {
+                    for (ProtectedRegion region : regions) {
+                        if (!reservations.isValid(world.getName(), region.getId(), tokens.get(region.getId()))) {
+                            // The reservation timed out while the money was withdrawn, somebody else might be buying the region now
+                            throw new BuyException(getLang("buy.in-progress", "region", region.getId()));
+                        }
+                    }
+                    // The regions or the player's other regions might have been changed while the money was withdrawn
+                    checkCheckout(player, world, regions);
+                    for (int i = 0; i < regions.size(); i++) {
+                        PurchaseJournal.Transaction transaction = transactions.get(i);
+                        Double currentPrice = regions.get(i).getFlag(PRICE_FLAG);
+                        if (currentPrice == null || currentPrice != transaction.getPrice()) {
+                            throw new BuyException(getLang("buy.price-mismatch", "sign", String.valueOf(transaction.getPrice()), "region", String.valueOf(currentPrice)));
+                        }
+                    }
+                } catch (BuyException e) {
+                    economyExecutor.execute(() -> transactions.forEach(transaction -> refund(transaction, e.getMessage())));
+                    release.run();
+                    future.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    completeCheckout(player, world, regions, transactions);
+                    future.complete(null);
+                } catch (BuyException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    release.run();
+                }
+            }, () -> transactions.forEach(transaction -> refund(transaction, "Plugin was disabled")));
+        });
+        return future;
+    }
+
+    /**
+     * Check whether a player can buy all regions of a checkout
+     * @param player    The buyer
+     * @param world     The world of the regions
+     * @param regions   The regions
+     * @throws BuyException If one of the regions isn't for sale or the player would own too many regions of a type
+     */
+    private void checkCheckout(Player player, World world, List<ProtectedRegion> regions) throws BuyException {
+        Map<String, List<String>> typeRegions = new LinkedHashMap<>();
+        for (ProtectedRegion region : regions) {
+            if (!isBuyable(region) || region.getFlag(PRICE_FLAG) == null) {
+                throw new BuyException(getLang("buy.not-for-sale", "region", region.getId()));
+            }
+            String type = region.getFlag(PLOT_TYPE_FLAG);
+            if (type != null && !type.isEmpty()) {
+                typeRegions.computeIfAbsent(type, t -> new ArrayList<>()).add(region.getId());
+            }
+        }
+        // One check per type for all regions of that type in the cart
+        for (Map.Entry<String, List<String>> entry : typeRegions.entrySet()) {
+            if (!checkTypeCount(player, world, entry.getKey(), entry.getValue().size())) {
+                throw new BuyException(getLang("cart.maximum-type-count",
+                        "count", String.valueOf(entry.getValue().size()),
+                        "type", entry.getKey(),
+                        "regions", String.join(", ", entry.getValue())
+                ));
+            }
+        }
+    }
+
+    /**
+     * Transfer the regions of a checkout after the money was withdrawn, update their signs and pay the owners
+     * @param player        The buyer
+     * @param world         The world of the regions
+     * @param regions       The regions
+     * @param transactions  The transactions of the regions in the same order
+     * @throws BuyException If a region couldn't be transferred, all purchases were resolved individually then
+     */
+    private void completeCheckout(Player player, World world, List<ProtectedRegion> regions, List<PurchaseJournal.Transaction> transactions) throws BuyException {
+        Map<ProtectedRegion, String[]> signLines = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < regions.size(); i++) {
+                ProtectedRegion region = regions.get(i);
+                PurchaseJournal.Transaction transaction = transactions.get(i);
+                getLogger().log(Level.INFO, player.getName() + "/" + player.getUniqueId() + " bought region " + region.getId() + " for " + transaction.getPrice() + " via checkout" + (transaction.getType() == null || transaction.getType().isEmpty() ? "" : " Type: " + transaction.getType()));
+                transferRegion(player.getUniqueId(), player.getName(), world, region, transaction.getPrice(), transaction.getType(), signLines);
+                purchaseJournal.transferred(transaction);
+            }
+        } catch (RuntimeException e) {
+            getLogger().log(Level.SEVERE, "Error while transferring the regions of a checkout to " + player.getName(), e);
+            // Some regions might've been changed partially, check what needs to be done for each of them
+            if (!signLines.isEmpty()) {
+                updateSigns(world, signLines);
+            }
+            for (PurchaseJournal.Transaction transaction : transactions) {
+                resolvePurchase(transaction);
+            }
+            throw new BuyException(e.getMessage());
+        }
+        // All signs of all regions are refreshed in one go
+        if (!signLines.isEmpty()) {
+            updateSigns(world, signLines);
+        }
+
+        Runnable notify = () -> {
+            for (PurchaseJournal.Transaction transaction : transactions) {
+                for (UUID ownerId : transaction.getOwners()) {
+                    notifyOwner(ownerId, player.getName(), transaction.getRegionId(), transaction.getPrice(), transaction.getEarnedPerOwner());
+                }
+            }
+        };
+        if (settings.isEconomyAsync()) {
+            economyExecutor.execute(() -> {
+                payOwners(transactions);
+                runSync(notify, () -> {
+                    for (PurchaseJournal.Transaction transaction : transactions) {
+                        for (UUID ownerId : transaction.getOwners()) {
+                            registerMessageIntent(ownerId, getSoldMessage(player.getName(), transaction.getRegionId(), transaction.getPrice(), transaction.getEarnedPerOwner()));
+                        }
+                    }
+                });
+            });
+        } else {
+            payOwners(transactions);
+            notify.run();
+        }
+    }
+
+    /**
+     * Complete or roll back the purchases which were interrupted by a crash
+     */
+    private void recoverPurchases() {
+        List<PurchaseJournal.Transaction> open = purchaseJournal.getOpen();
+        if (open.isEmpty()) {
+            return;
+        }
+        getLogger().log(Level.WARNING, "Found " + open.size() + " incomplete purchases in the journal, trying to resolve them...");
+        for (PurchaseJournal.Transaction transaction : open) {
+            try {
+                resolvePurchase(transaction);
+            } catch (RuntimeException e) {
+                getLogger().log(Level.SEVERE, "Error while resolving purchase " + transaction.getId() + " of region " + transaction.getRegionId(), e);
+            }
+        }
+    }
+
+    /**
+     * Bring an incomplete purchase into a consistent state. If the money was withdrawn and the region can still
+     * be transferred to the buyer then the purchase is completed, otherwise all money movements are reverted.
+     * Transactions that can't be resolved yet (e.g. because the world isn't loaded) stay open.
+     * @param transaction The transaction of the purchase
+     */
+    private void resolvePurchase(PurchaseJournal.Transaction transaction) {
+        if (!transaction.isWithdrawn()) {
+            purchaseJournal.rollback(transaction, "Nothing was withdrawn");
+            return;
+        }
+
+        if (!transaction.isTransferred() && !transaction.isRefunded()) {
+            World world = getServer().getWorld(transaction.getWorld());
+            RegionManager rm = world != null ? getRegionManager(world) : null;
+            if (rm == null) {
+                getLogger().log(Level.WARNING, "Unable to resolve purchase " + transaction.getId() + " of region " + transaction.getRegionId() + " as world " + transaction.getWorld() + " is not loaded");
+                return;
+            }
+            ProtectedRegion region = rm.getRegion(transaction.getRegionId());
+            if (region != null && !isBuyable(region) && region.getOwners().size() == 1 && region.getOwners().contains(transaction.getBuyerId())) {
+                // Region was already transferred before the purchase got interrupted
+                purchaseJournal.transferred(transaction);
+            } else if (region != null && isBuyable(region) && new HashSet<>(transaction.getOwners()).equals(region.getOwners().getUniqueIds())) {
+                getLogger().log(Level.INFO, "Completing purchase " + transaction.getId() + " of region " + region.getId() + " by " + transaction.getBuyerName());
+                transferRegion(transaction.getBuyerId(), transaction.getBuyerName(), world, region, transaction.getPrice(), transaction.getType());
+                purchaseJournal.transferred(transaction);
+            } else {
+                getLogger().log(Level.INFO, "Rolling back purchase " + transaction.getId() + " of region " + transaction.getRegionId() + " by " + transaction.getBuyerName());
+                refund(transaction, "Region can no longer be transferred");
+                return;
+            }
+        }
+
+        if (transaction.isTransferred()) {
+            payOwners(transaction);
+        } else {
+            refund(transaction, "Region can no longer be transferred");
+        }
+    }
+
+    /**
+     * Pay all owners of a transferred region that haven't been paid yet and commit the transaction
+     * @param transaction The transaction of the purchase
+     */
+    private void payOwners(PurchaseJournal.Transaction transaction) {
+        payOwners(Collections.singletonList(transaction));
+    }
+
+    /**
+     * Pay the owners of several transferred regions and commit the transactions.
+     * Every owner gets one deposit for their shares of all the regions.
+     * @param transactions The transactions of the purchases
+     */
+    private void payOwners(List<PurchaseJournal.Transaction> transactions) {
+        Map<UUID, List<PurchaseJournal.Transaction>> unpaid = new LinkedHashMap<>();
+        for (PurchaseJournal.Transaction transaction : transactions) {
+            for (UUID ownerId : transaction.getOwners()) {
+                if (!transaction.isPaid(ownerId)) {
+                    unpaid.computeIfAbsent(ownerId, id -> new ArrayList<>()).add(transaction);
                 }
+            }
+        }
+        for (Map.Entry<UUID, List<PurchaseJournal.Transaction>> entry : unpaid.entrySet()) {
+            UUID ownerId = entry.getKey();
+            if (treasury.isBatching() && getServer().getPlayer(ownerId) == null) {
+                // Offline owners get their share with the next batch
+                for (PurchaseJournal.Transaction transaction : entry.getValue()) {
+                    treasury.addPayout(transaction, ownerId, transaction.getEarnedPerOwner());
+                }
+                continue;
+            }
+            double earned = 0;
+            StringBuilder regionIds = new StringBuilder();
+            for (PurchaseJournal.Transaction transaction : entry.getValue()) {
+                earned += transaction.getEarnedPerOwner();
+                if (regionIds.length() > 0) {
+                    regionIds.append(", ");
+                }
+                regionIds.append(transaction.getRegionId());
+            }
+            if (payOwner(ownerId, regionIds.toString(), Math.round(earned * 100) / 100.0)) {
+                for (PurchaseJournal.Transaction transaction : entry.getValue()) {
+                    purchaseJournal.paid(transaction, ownerId);
+                }
+            }
+        }
+        for (PurchaseJournal.Transaction transaction : transactions) {
+            double tax = getTax(transaction);
+            if (treasury.isEnabled() && !transaction.isTaxed() && tax > 0) {
+                if (treasury.isBatching()) {
+                    treasury.addTax(transaction, tax);
+                } else if (treasury.deposit(tax)) {
+                    purchaseJournal.taxed(transaction, tax);
+                }
+            }
+            settlePurchase(transaction);
+        }
+    }
+
+    /**
+     * Deposit the collected taxes and shares of offline owners on the thread that does the economy calls
+     */
+    private void flushTreasury() {
+        if (settings.isEconomyAsync()) {
+            economyExecutor.execute(treasury::flush);
+        } else {
+            treasury.flush();
+        }
+    }
 
-                String message = getLang("buy.your-plot-sold",
-                            "region", region.getId(),
-                            "buyer", player.getName(),
-                            "earned", String.valueOf(earnedPerOwner),
-                            "price", String.valueOf(price)
-                );
-                if (owner.getPlayer() != null) {
-                    owner.getPlayer().sendMessage(message);
+    /**
+     * Commit a purchase if all owners and the treasury received their money
+     * @param transaction The transaction of the purchase
+     */
+    void settlePurchase(PurchaseJournal.Transaction transaction) {
+        synchronized (transaction) {
+            if (transaction.getState() != PurchaseJournal.State.OPEN) {
+                return;
+            }
+            for (UUID ownerId : transaction.getOwners()) {
+                if (!transaction.isPaid(ownerId)) {
+                    return;
+                }
+            }
+            if (treasury.isEnabled() && !transaction.isTaxed() && getTax(transaction) > 0) {
+                return;
+            }
+            purchaseJournal.commit(transaction);
+        }
+        if (marketStorage != null) {
+            marketStorage.recordSale(transaction);
+        }
+    }
+
+    /**
+     * Get the part of the price that doesn't go to the owners. Regions without owners pay the whole price as tax.
+     * @param transaction The transaction of the purchase
+     * @return The tax
+     */
+    private double getTax(PurchaseJournal.Transaction transaction) {
+        double tax = transaction.getPrice() - transaction.getEarnedPerOwner() * transaction.getOwners().size();
+        return Math.max(0, Math.round(tax * 100) / 100.0);
+    }
+
+    /**
+     * Give the price back to the buyer, take the share back from owners that were already paid and roll back the transaction
+     * @param transaction   The transaction of the purchase
+     * @param reason        Why the purchase is rolled back
+     */
+    private void refund(PurchaseJournal.Transaction transaction, String reason) {
+        if (!transaction.isRefunded()) {
+            OfflinePlayer buyer = getServer().getOfflinePlayer(transaction.getBuyerId());
+            EconomyResponse deposit = economyDeposit(buyer, transaction.getPrice());
+            if (!deposit.transactionSuccess()) {
+                getLogger().log(Level.SEVERE, "Error while refunding " + transaction.getPrice() + " to " + transaction.getBuyerName() + "/" + transaction.getBuyerId() + " for failed purchase of region " + transaction.getRegionId() + ". " + deposit.errorMessage);
+                return;
+            }
+            getLogger().log(Level.INFO, "Refunded " + transaction.getPrice() + " to " + transaction.getBuyerName() + "/" + transaction.getBuyerId() + " for failed purchase of region " + transaction.getRegionId() + ".");
+            purchaseJournal.refunded(transaction);
+        }
+        boolean success = true;
+        for (UUID ownerId : transaction.getOwners()) {
+            if (transaction.isPaid(ownerId) && !transaction.isReversed(ownerId)) {
+                OfflinePlayer owner = getServer().getOfflinePlayer(ownerId);
+                EconomyResponse withdraw = economyWithdraw(owner, transaction.getEarnedPerOwner());
+                if (withdraw.transactionSuccess()) {
+                    purchaseJournal.reversed(transaction, ownerId);
                 } else {
-                    registerMessageIntent(ownerId, message);
+                    getLogger().log(Level.SEVERE, "Error while taking back " + transaction.getEarnedPerOwner() + " from " + owner.getName() + "/" + ownerId + " for failed purchase of region " + transaction.getRegionId() + ". " + withdraw.errorMessage);
+                    success = false;
                 }
             }
         }
+        if (success) {
+            purchaseJournal.rollback(transaction, reason);
+        }
+    }
+
+    private boolean economyHas(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            return getEconomy().has(player, amount);
+        } finally {
+            stats.getVaultHas().recordSince(start);
+        }
+    }
+
+    private EconomyResponse economyWithdraw(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            return getEconomy().withdrawPlayer(player, amount);
+        } finally {
+            stats.getVaultWithdraw().recordSince(start);
+        }
+    }
+
+    EconomyResponse economyDeposit(OfflinePlayer player, double amount) {
+        long start = System.nanoTime();
+        try {
+            return getEconomy().depositPlayer(player, amount);
+        } finally {
+            stats.getVaultDeposit().recordSince(start);
+        }
+    }
+
+    private boolean isBuyable(ProtectedRegion region) {
+        return region.getFlag(BUYABLE_FLAG) != null && region.getFlag(BUYABLE_FLAG);
+    }
+
+    /**
+     * Check the parts of a purchase that don't involve the economy
+     * @param player The player that should buy the region
+     * @param region The region to buy
+     * @param type The region's type for the count
+     * @throws BuyException if the player can't buy the region
+     */
+    private void checkPurchase(Player player, World world, ProtectedRegion region, String type) throws BuyException {
+        if (!isBuyable(region)) {
+            throw new BuyException(getLang("buy.not-for-sale", "region", region.getId()));
+        }
+
+        if (!checkTypeCount(player, world, type)) {
+            throw new BuyException(getLang("buy.maximum-type-count", "region", region.getId(), "type", type));
+        }
+    }
+
+    private double getEarnedPerOwner(ProtectedRegion region, double price) {
+        return getEarnedPerOwner(price, region.getOwners().size());
+    }
+
+    private double getEarnedPerOwner(double price, int owners) {
+        double earnedPerOwner = price - settings.getTaxFixed() - price * settings.getTaxShare();
+        if (owners > 1) {
+            earnedPerOwner = earnedPerOwner / owners;
+        }
+        return Math.floor(earnedPerOwner * 100) / 100; // Make sure to round down to the second decimal point
+    }
+
+    private void withdraw(Player player, String regionId, double price) throws BuyException {
+        if (!economyHas(player, price)) {
+            throw new BuyException(getLang("buy.not-enough-money", "region", regionId, "price", String.valueOf(price)));
+        }
+
+        EconomyResponse withdraw = economyWithdraw(player, price);
+        if (!withdraw.transactionSuccess()) {
+            throw new BuyException(withdraw.errorMessage);
+        }
+    }
+
+    private boolean payOwner(UUID ownerId, String regionId, double earned) {
+        OfflinePlayer owner = getServer().getOfflinePlayer(ownerId);
+        EconomyResponse deposit = economyDeposit(owner, earned);
+        if (!deposit.transactionSuccess()) {
+            getLogger().log(Level.WARNING, "Error while depositing " + deposit.amount + " to " + owner.getName() + "/" + ownerId + " from region " + regionId + ". " + deposit.errorMessage);
+            return false;
+        }
+        getLogger().log(Level.INFO, owner.getName() + "/" + ownerId + " received " + deposit.amount + " from sale of region " + regionId + ".");
+        return true;
+    }
+
+    private void notifyOwner(UUID ownerId, String buyerName, String regionId, double price, double earned) {
+        sendOrStore(ownerId, getSoldMessage(buyerName, regionId, price, earned));
+    }
+
+    private String getSoldMessage(String buyerName, String regionId, double price, double earned) {
+        return getLang("buy.your-plot-sold",
+                "region", regionId,
+                "buyer", buyerName,
+                "earned", String.valueOf(earned),
+                "price", String.valueOf(price)
+        );
+    }
+
+    /**
+     * Transfer the region to its buyer after the money was withdrawn
+     * @param buyerId   The UUID of the player that bought the region
+     * @param buyerName The name of the player that bought the region
+     * @param world     The world of the region
+     * @param region    The region
+     * @param price     The price of the region
+     * @param type      The region's type for the count
+     */
+    private void transferRegion(UUID buyerId, String buyerName, World world, ProtectedRegion region, double price, String type) {
+        Map<ProtectedRegion, String[]> signLines = new LinkedHashMap<>();
+        transferRegion(buyerId, buyerName, world, region, price, type, signLines);
+        if (!signLines.isEmpty()) {
+            updateSigns(world, signLines);
+        }
+    }
 
+    /**
+     * Transfer the region to its buyer after the money was withdrawn
+     * @param buyerId   The UUID of the player that bought the region
+     * @param buyerName The name of the player that bought the region
+     * @param world     The world of the region
+     * @param region    The region
+     * @param price     The price of the region
+     * @param type      The region's type for the count
+     * @param signLines The map to add the lines for the region's signs to, they aren't updated by this method
+     */
+    private void transferRegion(UUID buyerId, String buyerName, World world, ProtectedRegion region, double price, String type, Map<ProtectedRegion, String[]> signLines) {
+        Integer rentPeriod = region.getFlag(RENT_PERIOD_FLAG);
+        if (rentPeriod != null && rentPeriod > 0) {
+            leaseManager.add(new LeaseManager.Lease(world.getName(), region.getId(), buyerId, buyerName,
+                    new ArrayList<>(region.getOwners().getUniqueIds()), price, rentPeriod, type,
+                    System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(rentPeriod)));
+        }
         region.setFlag(BUYABLE_FLAG, false);
         if (region.getFlag(PRICE_FLAG) == null) {
             region.setFlag(PRICE_FLAG, price);
@@ -205,20 +1213,143 @@ public final class PlotSigns extends JavaPlugin {
             region.setFlag(PLOT_TYPE_FLAG, type);
         }
         region.getOwners().clear();
-        region.getOwners().addPlayer(player.getUniqueId());
+        region.getOwners().addPlayer(buyerId);
+        updateIndices(world.getName(), region);
 
-        if (getConfig().getBoolean("update-all-sell-signs")) {
-            updateSignsInRegion(player, region, true);
+        if (settings.isUpdateAllSellSigns()) {
+            signLines.put(region, settings.getSoldLines(region.getId(), buyerName));
         }
     }
 
-    void updateSignsInRegion(Entity entity, ProtectedRegion region, boolean sold) {
-        // Get min chunks and get some border around the region if sell signs are outside of it
-        int chunkMinX = (region.getMinimumPoint().getBlockX() >> 4) - 1;
-        int chunkMinZ = (region.getMinimumPoint().getBlockZ() >> 4) - 1;
-        int chunkMaxX = (region.getMaximumPoint().getBlockX() >> 4) + 1;
-        int chunkMaxZ = (region.getMaximumPoint().getBlockZ() >> 4) + 1;
+    /**
+     * Update the indices and the storage after a region's owners or sale flags changed
+     * @param world  The name of the world the region is in
+     * @param region The region
+     */
+    private void updateIndices(String world, ProtectedRegion region) {
+        typeCountIndex.update(world, region);
+        marketIndex.update(world, region);
+        if (marketStorage != null) {
+            marketStorage.updateListing(world, region);
+        }
+    }
 
+    /**
+     * Renew or end a lease that is due
+     * @param lease The lease
+     */
+    void handleLeaseDue(LeaseManager.Lease lease) {
+        World world = getServer().getWorld(lease.getWorld());
+        RegionManager rm = world != null ? getRegionManager(world) : null;
+        if (rm == null) {
+            leaseManager.retry(lease, TimeUnit.MINUTES.toMillis(1));
+            return;
+        }
+        ProtectedRegion region = rm.getRegion(lease.getRegionId());
+        if (region == null || !region.getOwners().contains(lease.getTenantId())) {
+            // The region was changed outside of the plugin
+            getLogger().log(Level.INFO, "Dropping lease of " + lease.getRegionId() + " in " + lease.getWorld() + " as " + lease.getTenantName() + " no longer owns it");
+            leaseManager.remove(lease);
+            return;
+        }
+        if (!lease.isAutoRenew() || region.getFlag(RENT_PERIOD_FLAG) == null) {
+            expireLease(lease, world, region, "rent.expired");
+            return;
+        }
+
+        // Extend the lease before charging so that a crash can't lead to charging the same period twice
+        leaseManager.renew(lease);
+        double earnedPerOwner = getEarnedPerOwner(lease.getPrice(), lease.getLandlords().size());
+        Runnable charge = () -> {
+            OfflinePlayer tenant = getServer().getOfflinePlayer(lease.getTenantId());
+            PurchaseJournal.Transaction transaction = purchaseJournal.begin(lease.getTenantId(), lease.getTenantName(), lease.getWorld(),
+                    lease.getRegionId(), lease.getPrice(), lease.getType(), lease.getLandlords(), earnedPerOwner);
+            EconomyResponse withdraw = economyHas(tenant, lease.getPrice())
+                    ? economyWithdraw(tenant, lease.getPrice())
+                    : new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Not enough money");
+            if (!withdraw.transactionSuccess()) {
+                purchaseJournal.rollback(transaction, withdraw.errorMessage);
+                runSync(() -> {
+                    ProtectedRegion current = rm.getRegion(lease.getRegionId());
+                    if (current != null && leaseManager.getLease(lease.getWorld(), lease.getRegionId()) == lease) {
+                        expireLease(lease, world, current, "rent.not-enough-money");
+                    }
+                }, () -> {});
+                return;
+            }
+            purchaseJournal.withdrawn(transaction);
+            // The region stays with the tenant
+            purchaseJournal.transferred(transaction);
+            payOwners(transaction);
+            getLogger().log(Level.INFO, lease.getTenantName() + "/" + lease.getTenantId() + " renewed the lease of region " + lease.getRegionId() + " for " + lease.getPrice());
+            String renewed = getLang("rent.renewed",
+                    "region", lease.getRegionId(),
+                    "price", String.valueOf(lease.getPrice()),
+                    "until", formatDate(lease.getExpires())
+            );
+            runSync(() -> sendOrStore(lease.getTenantId(), renewed), () -> registerMessageIntent(lease.getTenantId(), renewed));
+        };
+        if (settings.isEconomyAsync()) {
+            economyExecutor.execute(charge);
+        } else {
+            charge.run();
+        }
+    }
+
+    /**
+     * End a lease and make the region rentable again
+     * @param lease     The lease
+     * @param world     The world of the region
+     * @param region    The region
+     * @param langKey   The message to send to the tenant
+     */
+    private void expireLease(LeaseManager.Lease lease, World world, ProtectedRegion region, String langKey) {
+        leaseManager.remove(lease);
+        region.getOwners().clear();
+        for (UUID landlord : lease.getLandlords()) {
+            region.getOwners().addPlayer(landlord);
+        }
+        region.setFlag(BUYABLE_FLAG, true);
+        updateIndices(world.getName(), region);
+        if (settings.isUpdateAllSellSigns() && region.getFlag(PRICE_FLAG) != null) {
+            updateSigns(world, Collections.singletonMap(region, getSignLines(region)));
+        }
+        getLogger().log(Level.INFO, "Lease of region " + region.getId() + " by " + lease.getTenantName() + "/" + lease.getTenantId() + " ended");
+        sendOrStore(lease.getTenantId(), getLang(langKey, "region", region.getId()));
+    }
+
+    private void sendOrStore(UUID playerId, String message) {
+        Player player = getServer().getPlayer(playerId);
+        if (player != null) {
+            player.sendMessage(message);
+        } else {
+            registerMessageIntent(playerId, message);
+        }
+    }
+
+    /**
+     * Format a timestamp for messages
+     * @param time The unix timestamp in milliseconds
+     * @return The formatted date
+     */
+    String formatDate(long time) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(time));
+    }
+
+    /**
+     * Run a task on the main thread
+     * @param task      The task to run
+     * @param fallback  What to run instead if the plugin was disabled in the meantime
+     */
+    private void runSync(Runnable task, Runnable fallback) {
+        try {
+            getServer().getScheduler().runTask(this, task);
+        } catch (IllegalPluginAccessException e) {
+            fallback.run();
+        }
+    }
+
+    void updateSignsInRegion(Entity entity, ProtectedRegion region, boolean sold) {
         String[] signLines;
         if (sold) {
             signLines = getSignLinesSold(entity, region);
@@ -226,86 +1357,244 @@ public final class PlotSigns extends JavaPlugin {
             signLines = getSignLines(region);
         }
 
+        updateSigns(entity.getWorld(), Collections.singletonMap(region, signLines));
+    }
+
+    /**
+     * Queue the update of the signs of multiple regions. The signs are written over the next ticks
+     * and each region is only searched once for signs that were created before the registry existed.
+     * @param world         The world that the regions are in
+     * @param regionLines   The regions and the lines to write to their signs
+     */
+    void updateSigns(World world, Map<ProtectedRegion, String[]> regionLines) {
+        for (Map.Entry<ProtectedRegion, String[]> entry : regionLines.entrySet()) {
+            signUpdateScheduler.schedule(world, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Write the lines to a sign that is bound to a region. If the sign's chunk isn't loaded
+     * then the update will be queued until it is loaded the next time.
+     * @param world     The world of the sign
+     * @param location  The location of the sign
+     * @param regionId  The id of the region that the sign has to be bound to
+     * @param lines     The lines to write
+     */
+    void updateSign(World world, SignLocation location, String regionId, String[] lines) {
+        if (!world.isChunkLoaded(location.getChunkX(), location.getChunkZ())) {
+            pendingSignUpdates.add(location, regionId, lines);
+            return;
+        }
+        BlockState state = location.getBlock(world).getState();
+        if (state instanceof Sign && regionId.equals(getSignRegion((Sign) state))) {
+            if (writeSign((Sign) state, lines, null)) {
+                stats.getSignsRewritten().increment();
+            } else {
+                stats.getSignsUnchanged().increment();
+            }
+        } else {
+            // Sign was removed without us noticing
+            signRegistry.remove(location);
+        }
+    }
+
+    /**
+     * Add the keys of all chunks that a region touches to a set
+     * @param region    The region
+     * @param chunks    The set to add the keys to (x in the upper, z in the lower 32 bits)
+     */
+    static void addChunkKeys(ProtectedRegion region, Set<Long> chunks) {
+        int chunkMinX = region.getMinimumPoint().getBlockX() >> 4;
+        int chunkMinZ = region.getMinimumPoint().getBlockZ() >> 4;
+        int chunkMaxX = region.getMaximumPoint().getBlockX() >> 4;
+        int chunkMaxZ = region.getMaximumPoint().getBlockZ() >> 4;
         for (int x = chunkMinX; x <= chunkMaxX; x++) {
             for (int z = chunkMinZ; z <= chunkMaxZ; z++) {
-                if (entity.getWorld().isChunkLoaded(x, z)) {
-                    Chunk chunk = entity.getWorld().getChunkAt(x, z);
-                    for (BlockState state : chunk.getTileEntities()) {
-                        if (state instanceof Sign) {
-                            Sign sign = (Sign) state;
-                            if (sign.getPersistentDataContainer().has(SIGN_REGION_KEY, PersistentDataType.STRING)) {
-                                String regionId = sign.getPersistentDataContainer().get(SIGN_REGION_KEY, PersistentDataType.STRING);
-                                if (region.getId().equals(regionId)) {
-                                    for (int i = 0; i < signLines.length; i++) {
-                                        sign.setLine(i, signLines[i]);
-                                    }
-                                    sign.update();
-                                }
-                            }
-                        }
-                    }
-                }
+                chunks.add(getChunkKey(x, z));
             }
         }
     }
 
-    public boolean checkTypeCount(Player player, World world, String type) {
-        if (type == null || type.isEmpty() || player.hasPermission("plotsigns.type." + type + ".unlimited") || player.hasPermission("plotsigns.group." + type + ".unlimited")) {
-            return true;
+    /**
+     * Get the key of a chunk
+     * @param x The x coordinate of the chunk
+     * @param z The z coordinate of the chunk
+     * @return The key with x in the upper and z in the lower 32 bits
+     */
+    static long getChunkKey(int x, int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Add all signs of a chunk that are bound to a region to the registry
+     * @param chunk     The chunk to search
+     * @param registry  The registry to add the signs to
+     * @return The amount of tile entities that were inspected
+     */
+    static int scanChunk(Chunk chunk, SignRegistry registry) {
+        BlockState[] states = chunk.getTileEntities();
+        for (BlockState state : states) {
+            if (state instanceof Sign) {
+                String regionId = getSignRegion((Sign) state);
+                if (regionId != null) {
+                    registry.add(new SignLocation(state.getBlock()), regionId);
+                }
+            }
         }
+        return states.length;
+    }
 
-        int maxAmount = 1;
-        if (getConfig().contains("type-counts.groups." + type) && player.hasPermission("plotsigns.group." + type)) {
-            maxAmount = getConfig().getInt("type-counts.groups." + type);
-        } else {
-            for (int i = getConfig().getInt("type-counts.max-number"); i >= 0; i--) {
-                if (player.hasPermission("plotsigns.type." + type + "." + i)) {
-                    maxAmount = i;
-                    break;
+    /**
+     * Write lines and the region binding to a sign with a single update.
+     * Nothing is updated if the sign already shows the lines and is bound to the region,
+     * so that no chunk gets dirty and no block update is sent to the clients.
+     * @param sign      The sign state
+     * @param lines     The lines to write or null to keep the current ones
+     * @param regionId  The region to bind the sign to or null to keep the current binding
+     * @return Whether the sign had to be updated
+     */
+    static boolean writeSign(Sign sign, String[] lines, String regionId) {
+        boolean changed = false;
+        if (lines != null) {
+            for (int i = 0; i < lines.length; i++) {
+                if (!Objects.equals(lines[i], sign.getLine(i))) {
+                    sign.setLine(i, lines[i]);
+                    changed = true;
                 }
             }
         }
+        if (regionId != null && !regionId.equals(getSignRegion(sign))) {
+            sign.getPersistentDataContainer().set(SIGN_REGION_KEY, PersistentDataType.STRING, regionId);
+            changed = true;
+        }
+        if (changed) {
+            sign.update();
+        }
+        return changed;
+    }
 
-        if (maxAmount == 0) {
-            return false;
+    /**
+     * Write a file by writing a temporary file first and moving it over the old one
+     * so that a crash in the middle of the write doesn't leave a truncated file behind
+     * @param file  The file to write
+     * @param data  The content
+     * @throws IOException If the file couldn't be written
+     */
+    static void writeFile(File file, String data) throws IOException {
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        Files.write(temp.toPath(), data.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
         }
+    }
 
-        RegionManager rm = WorldGuard.getInstance().getPlatform().getRegionContainer().get(new BukkitWorld(world));
-        if (rm == null) {
+    /**
+     * Get the id of the region that a sign is bound to
+     * @param sign The sign
+     * @return The region id or null if the sign isn't bound to a region
+     */
+    static String getSignRegion(Sign sign) {
+        return sign.getPersistentDataContainer().get(SIGN_REGION_KEY, PersistentDataType.STRING);
+    }
+
+    public boolean checkTypeCount(Player player, World world, String type) {
+        return checkTypeCount(player, world, type, 1);
+    }
+
+    /**
+     * Check whether a player can buy several more regions of a type
+     * @param player The player
+     * @param world  The world of the regions
+     * @param type   The type of the regions
+     * @param amount How many regions of that type the player wants to buy
+     * @return Whether the player can own that many more regions of the type
+     */
+    public boolean checkTypeCount(Player player, World world, String type, int amount) {
+        long start = System.nanoTime();
+        try {
+            RegionManager rm = getRegionManager(world);
+            return checkTypeCount(typeCountIndex, typeLimitCache, settings, rm != null ? rm::getRegion : null, player, world.getName(), type, amount);
+        } finally {
+            stats.getTypeCount().recordSince(start);
+        }
+    }
+
+    /**
+     * Check whether a player can own some more regions of a type. Only the player's indexed
+     * regions are looked at again when the count seems to be over the limit.
+     * @param index         The type count index
+     * @param limitCache    The cache of the limits from the player's permissions
+     * @param settings      The settings
+     * @param regions       Gets the current region of the world by its id or null if the world has no regions
+     * @param player        The player
+     * @param world         The name of the world
+     * @param type          The type of the region
+     * @param amount        How many regions of that type the player wants to buy
+     * @return Whether the player can own that many more regions of the type
+     */
+    static boolean checkTypeCount(TypeCountIndex index, TypeLimitCache limitCache, Settings settings, Function<String, ProtectedRegion> regions, Player player, String world, String type, int amount) {
+        if (type == null || type.isEmpty()) {
+            return true;
+        }
+
+        int maxAmount = limitCache.getLimit(player, type, settings);
+        if (maxAmount == TypeLimitCache.UNLIMITED) {
+            return true;
+        }
+
+        if (maxAmount == 0 || regions == null) {
             return false;
         }
-        int count = 0;
-        for (ProtectedRegion region : rm.getRegions().values()) {
-            if (region.getOwners().contains(player.getUniqueId()) && region.getFlag(PLOT_TYPE_FLAG) != null && type.equals(region.getFlag(PLOT_TYPE_FLAG))) {
-                count++;
-                if (count >= maxAmount) {
-                    return false;
-                }
-            }
+
+        int count = index.getCount(world, player.getUniqueId(), type);
+        if (count + amount > maxAmount) {
+            // Some of the indexed regions might have been changed outside of the plugin, make sure they are still owned
+            count = index.verify(world, regions, player.getUniqueId(), type);
         }
 
-        return count < maxAmount;
+        return count + amount <= maxAmount;
+    }
+
+    RegionManager getRegionManager(World world) {
+        return WorldGuard.getInstance().getPlatform().getRegionContainer().get(new BukkitWorld(world));
+    }
+
+    /**
+     * Get the name of the world that a region is in
+     * @param region The region
+     * @return The world's name or null if the region isn't in any loaded world
+     */
+    String getWorldName(ProtectedRegion region) {
+        return regionLookup.getWorldName(region);
     }
 
     public void registerMessageIntent(UUID playerId, String message) {
-        List<String> messages = getMessageIntents(playerId);
-        if (messages == null) {
-            messages = new ArrayList<>();
+        if (marketStorage != null && marketStorage.isConnected()) {
+            marketStorage.addNotification(playerId, message);
+        } else {
+            messageStore.add(playerId, message);
         }
-        messages.add(message);
-        messageIntents.put(playerId, messages);
     }
 
     public boolean hasMessageIntents(UUID playerId) {
-        return getMessageIntents(playerId) != null;
+        return messageStore.hasMessages(playerId);
     }
 
+    /**
+     * Get the messages that are stored for a player. This reads them from the disk.
+     * @param playerId The UUID of the player
+     * @return The messages or null if there are none
+     */
     public List<String> getMessageIntents(UUID playerId) {
-        return messageIntents.getIfPresent(playerId);
+        List<String> messages = messageStore.get(playerId);
+        return messages.isEmpty() ? null : messages;
     }
 
     public void removeMessageIntents(UUID playerId) {
-        messageIntents.invalidate(playerId);
+        messageStore.remove(playerId);
     }
 
     public void registerWriteIntent(UUID playerId, String[] lines) {
@@ -334,52 +1623,146 @@ public final class PlotSigns extends JavaPlugin {
         if (region.getFlag(PRICE_FLAG) == null) {
             throw new IllegalArgumentException("The region " + region.getId() + " does not have the price flag set?");
         }
-        String[] lines = new String[4];
-        lines[0] = getSellLine();
-        lines[1] = region.getId();
-        lines[2] = String.valueOf(region.getFlag(PRICE_FLAG));
-        lines[3] = region.getFlag(PLOT_TYPE_FLAG) != null ? region.getFlag(PLOT_TYPE_FLAG) : "";
-        
-        for (int i = 0; i < getSellFormat().size() && i < lines.length; i++) {
-            lines[i] = getSellFormat().get(i) + lines[i];
-        }
-        return lines;
+        return settings.getSellLines(region.getId(), region.getFlag(PRICE_FLAG), region.getFlag(PLOT_TYPE_FLAG));
     }
 
     public String[] getSignLinesSold(Entity entity, ProtectedRegion region) {
-        String[] lines = new String[4];
-        List<String> configLines = getConfig().getStringList("sign.sold");
-
-        for (int i = 0; i < lines.length; i++) {
-            if (i < configLines.size()) {
-                lines[i] = ChatColor.translateAlternateColorCodes('&',configLines.get(i))
-                        .replace("%region%", region.getId())
-                        .replace("%player%", entity.getName());
-            } else {
-                lines[i] = "";
-            }
+        return settings.getSoldLines(region.getId(), entity.getName());
+    }
+
+    /**
+     * Get the lines that the signs of a region should show according to its flags
+     * @param region The region
+     * @return The sell lines if it is buyable, the sold lines with its first owner if it has one or null otherwise
+     */
+    String[] getCurrentSignLines(ProtectedRegion region) {
+        if (isBuyable(region) && region.getFlag(PRICE_FLAG) != null) {
+            return getSignLines(region);
+        }
+        if (!region.getOwners().getUniqueIds().isEmpty()) {
+            UUID ownerId = region.getOwners().getUniqueIds().iterator().next();
+            String name = getServer().getOfflinePlayer(ownerId).getName();
+            return settings.getSoldLines(region.getId(), name != null ? name : ownerId.toString());
+        }
+        if (!region.getOwners().getPlayers().isEmpty()) {
+            return settings.getSoldLines(region.getId(), region.getOwners().getPlayers().iterator().next());
         }
-        return lines;
+        return null;
     }
 
     public String getLang(String key, String... args) {
-        String message = getConfig().getString("lang." + key, getName() + ": &cUnknown language key &6" + key + "&c!");
-        for (int i = 0; i + 1 < args.length; i += 2) {
-            message = message.replace("%" + args[i] + "%", args[i+1] != null ? args[i+1] : "null");
+        LangTemplate template = settings.getLang(key);
+        if (template == null) {
+            return ChatColor.translateAlternateColorCodes('&', getName() + ": &cUnknown language key &6" + key + "&c!");
         }
-        return ChatColor.translateAlternateColorCodes('&', message);
+        long start = System.nanoTime();
+        try {
+            return template.render(args);
+        } finally {
+            stats.getLang().recordSince(start);
+        }
+    }
+
+    public PurchaseJournal getPurchaseJournal() {
+        return purchaseJournal;
+    }
+
+    public MessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    public RegionReservations getReservations() {
+        return reservations;
+    }
+
+    public LeaseManager getLeaseManager() {
+        return leaseManager;
+    }
+
+    public SignResync getSignResync() {
+        return signResync;
+    }
+
+    public SignUpdateScheduler getSignUpdateScheduler() {
+        return signUpdateScheduler;
+    }
+
+    public PendingSignUpdates getPendingSignUpdates() {
+        return pendingSignUpdates;
+    }
+
+    public SignRegistry getSignRegistry() {
+        return signRegistry;
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Write the current stats to the stats.prom file so that they can be scraped by monitoring tools
+     */
+    private void dumpStats() {
+        String data = stats.toPrometheus();
+        getServer().getScheduler().runTaskAsynchronously(this, () -> {
+            File file = new File(getDataFolder(), "stats.prom");
+            try {
+                writeFile(file, data);
+            } catch (IOException e) {
+                getLogger().log(Level.WARNING, "Error while writing stats to " + file, e);
+            }
+        });
+    }
+
+    /**
+     * @return The SQL storage or null if none is configured
+     */
+    public MarketStorage getMarketStorage() {
+        return marketStorage;
+    }
+
+    public Treasury getTreasury() {
+        return treasury;
+    }
+
+    public ClickLimiter getClickLimiter() {
+        return clickLimiter;
+    }
+
+    public PlotCart getPlotCart() {
+        return plotCart;
+    }
+
+    public RegionLookup getRegionLookup() {
+        return regionLookup;
+    }
+
+    public MarketIndex getMarketIndex() {
+        return marketIndex;
+    }
+
+    public TypeLimitCache getTypeLimitCache() {
+        return typeLimitCache;
+    }
+
+    public TypeCountIndex getTypeCountIndex() {
+        return typeCountIndex;
     }
 
     public Economy getEconomy() {
         return economy;
     }
 
+    public Settings getSettings() {
+        return settings;
+    }
+
     public String getSellLine() {
-        return signSellLine;
+        return settings.getSellLine();
     }
     
     public ArrayList<String> getSellFormat() {
-        return sellFormat;
+        return new ArrayList<>(settings.getSellFormat());
     }
 
     public class BuyException extends Exception {
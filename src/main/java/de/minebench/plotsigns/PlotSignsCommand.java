@@ -29,13 +29,40 @@ import org.bukkit.command.BlockCommandSender;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.IllegalPluginAccessException;
 
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class PlotSignsCommand implements CommandExecutor, TabCompleter {
+    private static final int LIST_PAGE_SIZE = 10;
+    private static final int COMPLETION_LIMIT = 50;
+
+    /**
+     * Sub command -> permission to use it
+     */
+    private static final Map<String, String> SUB_COMMANDS = new LinkedHashMap<>();
+    static {
+        for (String subCommand : new String[] {"buy", "cart", "sell", "rent", "unrent", "type", "bulk", "sign", "list", "history", "resync", "stats", "reload"}) {
+            SUB_COMMANDS.put(subCommand, "plotsigns.command." + subCommand);
+        }
+        SUB_COMMANDS.put("checkout", "plotsigns.command.cart");
+    }
 
-public class PlotSignsCommand implements CommandExecutor {
     private final PlotSigns plugin;
 
     public PlotSignsCommand(PlotSigns plugin) {
@@ -46,8 +73,21 @@ public class PlotSignsCommand implements CommandExecutor {
         if (args.length > 0) {
 
             if ("reload".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.reload")) {
-                plugin.loadConfig();
-                sender.sendMessage(ChatColor.YELLOW + "Config reloaded!");
+                plugin.loadConfigAsync(() -> {
+                    plugin.indexWorlds();
+                    sender.sendMessage(ChatColor.YELLOW + "Config reloaded!");
+                });
+                return true;
+
+            } else if ("stats".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.stats")) {
+                if (args.length > 1 && "reset".equalsIgnoreCase(args[1])) {
+                    plugin.getStats().reset();
+                    sender.sendMessage(ChatColor.YELLOW + "Stats reset!");
+                    return true;
+                }
+                for (String line : plugin.getStats().getSummary()) {
+                    sender.sendMessage(ChatColor.YELLOW + line);
+                }
                 return true;
 
             } else if ("buy".equalsIgnoreCase(args[0]) || "kaufen".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.buy")) {
@@ -73,11 +113,8 @@ public class PlotSignsCommand implements CommandExecutor {
                             sender.sendMessage(plugin.getLang("error.unknown-region", "region", args[1]));
                         }
                     } else {
-                        List<ProtectedRegion> regions = new ArrayList<>(rm.getApplicableRegions(l.toVector().toBlockPoint()).getRegions());
-                        if (regions.size() > 0) {
-                            regions.sort((r1, r2) -> Integer.compare(r2.getPriority(), r1.getPriority()));
-                            region = regions.get(0);
-                        }
+                        // Not cached, the player might otherwise buy a region that was just replaced by a child region
+                        region = RegionLookup.findHighestPriorityRegion(rm, l.toVector().toBlockPoint());
                         if (region == null) {
                             sender.sendMessage(plugin.getLang("error.no-region-at-location"));
                         }
@@ -92,13 +129,15 @@ public class PlotSignsCommand implements CommandExecutor {
                         return true;
                     }
 
-                    try {
-                        double price = region.getFlag(PlotSigns.PRICE_FLAG);
-                        plugin.buyRegion((Player) sender, region, price, region.getFlag(PlotSigns.PLOT_TYPE_FLAG));
-                        sender.sendMessage(plugin.getLang("buy.bought-plot", "region", region.getId(), "price", String.valueOf(price)));
-                    } catch (PlotSigns.BuyException e) {
-                        sender.sendMessage(ChatColor.RED + "Error while trying to buy the region " + region.getId() + "! " + e.getMessage());
-                    }
+                    double price = region.getFlag(PlotSigns.PRICE_FLAG);
+                    ProtectedRegion boughtRegion = region;
+                    plugin.purchaseRegion((Player) sender, region, price, region.getFlag(PlotSigns.PLOT_TYPE_FLAG)).whenComplete((v, e) -> {
+                        if (e != null) {
+                            sender.sendMessage(ChatColor.RED + "Error while trying to buy the region " + boughtRegion.getId() + "! " + e.getMessage());
+                        } else {
+                            sender.sendMessage(plugin.getLang("buy.bought-plot", "region", boughtRegion.getId(), "price", String.valueOf(price)));
+                        }
+                    });
                 } else {
                     sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " [<region>]");
                 }
@@ -124,7 +163,7 @@ public class PlotSignsCommand implements CommandExecutor {
                         String perm = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
                         plugin.makeRegionBuyable(region, price, perm);
 
-                        if (plugin.getConfig().getBoolean("update-all-sell-signs") && sender instanceof Entity) {
+                        if (plugin.getSettings().isUpdateAllSellSigns() && sender instanceof Entity) {
                             plugin.updateSignsInRegion((Entity) sender, region, false);
                         }
                         sender.sendMessage(plugin.getLang("create-sign.success", "region", region.getId(), "price", String.valueOf(price), "type", perm));
@@ -138,6 +177,67 @@ public class PlotSignsCommand implements CommandExecutor {
                 }
                 return true;
 
+            } else if ("rent".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.rent")) {
+                if (args.length > 3) {
+                    ProtectedRegion region = getRegion(sender, args[1]);
+
+                    if (region == null) {
+                        sender.sendMessage(plugin.getLang("error.unknown-region", "region", args[1]));
+                        return true;
+                    }
+
+                    if (sender instanceof Player && !region.getOwners().contains(((Player) sender).getUniqueId()) && !sender.hasPermission("plotsigns.command.rent.others")) {
+                        sender.sendMessage(plugin.getLang("create-sign.doesnt-own-plot"));
+                        return true;
+                    }
+
+                    int period = parsePeriod(args[3]);
+                    if (period <= 0) {
+                        sender.sendMessage(plugin.getLang("rent.malformed-period", "input", args[3]));
+                        return true;
+                    }
+
+                    try {
+                        double price = Double.parseDouble(args[2]);
+                        String perm = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
+                        plugin.makeRegionRentable(region, price, perm, period);
+
+                        if (plugin.getSettings().isUpdateAllSellSigns() && sender instanceof Entity) {
+                            plugin.updateSignsInRegion((Entity) sender, region, false);
+                        }
+                        sender.sendMessage(plugin.getLang("rent.success", "region", region.getId(), "price", String.valueOf(price), "period", args[3]));
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage(plugin.getLang("error.malformed-price", "input", args[2]));
+                    } catch (IllegalArgumentException e) {
+                        sender.sendMessage(ChatColor.RED + "Error while trying to make the region rentable! " + e.getMessage());
+                    }
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <region> <price> <period>");
+                }
+                return true;
+
+            } else if ("unrent".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.unrent")) {
+                if (args.length > 1) {
+                    ProtectedRegion region = getRegion(sender, args[1]);
+                    LeaseManager.Lease lease = region != null ? plugin.getLeaseManager().getLease(plugin.getWorldName(region), region.getId()) : null;
+
+                    if (lease == null) {
+                        sender.sendMessage(plugin.getLang("rent.not-rented", "region", args[1]));
+                        return true;
+                    }
+
+                    if (sender instanceof Player && !lease.getTenantId().equals(((Player) sender).getUniqueId()) && !sender.hasPermission("plotsigns.command.unrent.others")) {
+                        sender.sendMessage(plugin.getLang("rent.not-rented", "region", args[1]));
+                        return true;
+                    }
+
+                    plugin.getLeaseManager().setAutoRenew(lease, false);
+                    sender.sendMessage(plugin.getLang("rent.renewal-cancelled", "region", region.getId(), "until", plugin.formatDate(lease.getExpires())));
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <region>");
+                }
+                return true;
+
             } else if ("type".equalsIgnoreCase(args[0]) || "permission".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.type")) {
                 // legacy sub command, you can write the signs directly
                 if (args.length > 2) {
@@ -160,7 +260,7 @@ public class PlotSignsCommand implements CommandExecutor {
                             return true;
                         }
                         plugin.makeRegionBuyable(region, price, args[2]);
-                        if (plugin.getConfig().getBoolean("update-all-sell-signs") && sender instanceof Entity) {
+                        if (plugin.getSettings().isUpdateAllSellSigns() && sender instanceof Entity) {
                             plugin.updateSignsInRegion((Entity) sender, region, false);
                         }
                         sender.sendMessage(plugin.getLang("create-sign.success", "region", region.getId(), "price", String.valueOf(price), "type", args[2]));
@@ -172,6 +272,276 @@ public class PlotSignsCommand implements CommandExecutor {
                 }
                 return true;
 
+            } else if ("bulk".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.bulk")) {
+                if (args.length > 2) {
+                    org.bukkit.World world = null;
+                    List<String> params = new ArrayList<>();
+                    for (int i = 1; i < args.length; i++) {
+                        if (args[i].toLowerCase(Locale.ROOT).startsWith("world:")) {
+                            world = plugin.getServer().getWorld(args[i].substring("world:".length()));
+                            if (world == null) {
+                                sender.sendMessage(plugin.getLang("error.unknown-world", "world", args[i].substring("world:".length())));
+                                return true;
+                            }
+                        } else {
+                            params.add(args[i]);
+                        }
+                    }
+                    if (world == null) {
+                        if (sender instanceof Entity) {
+                            world = ((Entity) sender).getWorld();
+                        } else if (sender instanceof BlockCommandSender) {
+                            world = ((BlockCommandSender) sender).getBlock().getWorld();
+                        } else {
+                            sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <selector> <price>|- [<type>|-] world:<world>");
+                            return true;
+                        }
+                    }
+                    if (params.size() < 2) {
+                        sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <selector> <price>|- [<type>|-] [world:<world>]");
+                        return true;
+                    }
+
+                    RegionManager rm = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world));
+                    if (rm == null) {
+                        sender.sendMessage(plugin.getLang("error.world-not-supported", "world", world.getName()));
+                        return true;
+                    }
+
+                    Predicate<ProtectedRegion> selector;
+                    try {
+                        selector = parseSelector(params.get(0));
+                    } catch (PatternSyntaxException e) {
+                        sender.sendMessage(plugin.getLang("bulk.invalid-selector", "input", params.get(0)));
+                        return true;
+                    }
+
+                    Double price = null;
+                    if (!"-".equals(params.get(1))) {
+                        try {
+                            price = Double.parseDouble(params.get(1));
+                        } catch (NumberFormatException e) {
+                            sender.sendMessage(plugin.getLang("error.malformed-price", "input", params.get(1)));
+                            return true;
+                        }
+                    }
+                    String type = params.size() > 2 ? params.get(2) : null;
+
+                    Map<ProtectedRegion, String[]> updated = new LinkedHashMap<>();
+                    int failed = 0;
+                    for (ProtectedRegion region : rm.getRegions().values()) {
+                        if (!selector.test(region)) {
+                            continue;
+                        }
+                        Double regionPrice = price != null ? price : region.getFlag(PlotSigns.PRICE_FLAG);
+                        String regionType = type == null ? region.getFlag(PlotSigns.PLOT_TYPE_FLAG) : "-".equals(type) ? null : type;
+                        if (regionPrice == null) {
+                            failed++;
+                            continue;
+                        }
+                        try {
+                            plugin.makeRegionBuyable(world.getName(), region, regionPrice, regionType);
+                            updated.put(region, plugin.getSignLines(region));
+                        } catch (IllegalArgumentException e) {
+                            failed++;
+                        }
+                    }
+
+                    if (updated.isEmpty() && failed == 0) {
+                        sender.sendMessage(plugin.getLang("bulk.no-match", "input", params.get(0)));
+                        return true;
+                    }
+                    if (plugin.getSettings().isUpdateAllSellSigns()) {
+                        plugin.updateSigns(world, updated);
+                    }
+                    sender.sendMessage(plugin.getLang("bulk.success", "count", String.valueOf(updated.size()), "failed", String.valueOf(failed)));
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <selector> <price>|- [<type>|-] [world:<world>]");
+                }
+                return true;
+
+            } else if ("list".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.list")) {
+                String world = null;
+                String type = null;
+                double minPrice = 0;
+                double maxPrice = Double.MAX_VALUE;
+                MarketIndex.Sort sort = MarketIndex.Sort.PRICE;
+                int page = 1;
+                for (int i = 1; i < args.length; i++) {
+                    int index = args[i].indexOf(':');
+                    try {
+                        if (index < 0) {
+                            page = Math.max(1, Integer.parseInt(args[i]));
+                            continue;
+                        }
+                        String value = args[i].substring(index + 1);
+                        switch (args[i].substring(0, index).toLowerCase(Locale.ROOT)) {
+                            case "world":
+                                world = value;
+                                break;
+                            case "type":
+                                type = value;
+                                break;
+                            case "min":
+                                minPrice = Double.parseDouble(value);
+                                break;
+                            case "max":
+                                maxPrice = Double.parseDouble(value);
+                                break;
+                            case "sort":
+                                if ("price".equalsIgnoreCase(value)) {
+                                    sort = MarketIndex.Sort.PRICE;
+                                } else if ("-price".equalsIgnoreCase(value)) {
+                                    sort = MarketIndex.Sort.PRICE_DESCENDING;
+                                } else if ("type".equalsIgnoreCase(value)) {
+                                    sort = MarketIndex.Sort.TYPE;
+                                } else {
+                                    sender.sendMessage(plugin.getLang("list.invalid-filter", "input", args[i]));
+                                    return true;
+                                }
+                                break;
+                            default:
+                                sender.sendMessage(plugin.getLang("list.invalid-filter", "input", args[i]));
+                                return true;
+                        }
+                    } catch (NumberFormatException e) {
+                        sender.sendMessage(plugin.getLang("error.malformed-price", "input", args[i]));
+                        return true;
+                    }
+                }
+
+                if (plugin.getMarketStorage() != null && plugin.getMarketStorage().isConnected()) {
+                    // Query the shared storage so that the regions of other servers are listed too
+                    int listPage = page;
+                    plugin.getMarketStorage().queryListings(world, type, minPrice, maxPrice, sort, (page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE).whenComplete((result, e) -> {
+                        try {
+                            plugin.getServer().getScheduler().runTask(plugin, () -> {
+                                if (e != null) {
+                                    sender.sendMessage(ChatColor.RED + "Error while querying the buyable regions! " + e.getMessage());
+                                } else {
+                                    sendListings(sender, result, listPage);
+                                }
+                            });
+                        } catch (IllegalPluginAccessException ignored) {
+                            // Plugin is disabling
+                        }
+                    });
+                    return true;
+                }
+
+                MarketIndex.Result result = plugin.getMarketIndex().query(world, type, minPrice, maxPrice, sort, (page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE);
+                if (verifyListings(result.getListings())) {
+                    // Some regions were changed outside of the plugin, query again with the updated index
+                    result = plugin.getMarketIndex().query(world, type, minPrice, maxPrice, sort, (page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE);
+                }
+                sendListings(sender, result, page);
+                return true;
+
+            } else if ("history".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.history")) {
+                UUID playerId = null;
+                String world = null;
+                String regionId = null;
+                int page = 1;
+                for (int i = 1; i < args.length; i++) {
+                    int index = args[i].indexOf(':');
+                    if (index < 0) {
+                        try {
+                            page = Math.max(1, Integer.parseInt(args[i]));
+                        } catch (NumberFormatException e) {
+                            sender.sendMessage(plugin.getLang("history.invalid-filter", "input", args[i]));
+                            return true;
+                        }
+                        continue;
+                    }
+                    String value = args[i].substring(index + 1);
+                    switch (args[i].substring(0, index).toLowerCase(Locale.ROOT)) {
+                        case "player":
+                            Player player = plugin.getServer().getPlayerExact(value);
+                            playerId = player != null ? player.getUniqueId() : plugin.getPurchaseJournal().getBuyerId(value);
+                            if (playerId == null) {
+                                sender.sendMessage(plugin.getLang("history.unknown-player", "player", value));
+                                return true;
+                            }
+                            break;
+                        case "world":
+                            world = value;
+                            break;
+                        case "region":
+                            regionId = value;
+                            break;
+                        default:
+                            sender.sendMessage(plugin.getLang("history.invalid-filter", "input", args[i]));
+                            return true;
+                    }
+                }
+                if (regionId != null && world == null) {
+                    if (!(sender instanceof Player)) {
+                        sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " region:<region> world:<world> [<page>]");
+                        return true;
+                    }
+                    world = ((Player) sender).getWorld().getName();
+                }
+
+                PurchaseJournal.Result result = plugin.getPurchaseJournal().query(playerId, world, regionId, (page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE);
+                if (result.getTransactions().isEmpty()) {
+                    sender.sendMessage(plugin.getLang("history.empty"));
+                    return true;
+                }
+                int pages = (result.getTotal() + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE;
+                sender.sendMessage(plugin.getLang("history.header", "page", String.valueOf(page), "pages", String.valueOf(pages), "total", String.valueOf(result.getTotal())));
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+                for (PurchaseJournal.Transaction transaction : result.getTransactions()) {
+                    sender.sendMessage(plugin.getLang("history.entry",
+                            "date", dateFormat.format(new Date(transaction.getTime())),
+                            "buyer", transaction.getBuyerName(),
+                            "region", transaction.getRegionId(),
+                            "world", transaction.getWorld(),
+                            "price", String.valueOf(transaction.getPrice()),
+                            "state", transaction.getState().name().toLowerCase(Locale.ROOT).replace('_', ' ')
+                    ));
+                }
+                return true;
+
+            } else if ("resync".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.resync")) {
+                SignResync.Job job = plugin.getSignResync().getJob();
+                if (args.length > 1 && "status".equalsIgnoreCase(args[1])) {
+                    if (job == null) {
+                        sender.sendMessage(plugin.getLang("resync.not-running"));
+                    } else {
+                        job.sendProgress(plugin, sender);
+                    }
+                    return true;
+                }
+                if (args.length > 1 && "cancel".equalsIgnoreCase(args[1])) {
+                    job = plugin.getSignResync().cancel();
+                    if (job == null) {
+                        sender.sendMessage(plugin.getLang("resync.not-running"));
+                    } else {
+                        sender.sendMessage(plugin.getLang("resync.cancelled", "world", job.getWorld()));
+                    }
+                    return true;
+                }
+
+                org.bukkit.World world;
+                if (args.length > 1) {
+                    world = plugin.getServer().getWorld(args[1]);
+                    if (world == null) {
+                        sender.sendMessage(plugin.getLang("error.unknown-world", "world", args[1]));
+                        return true;
+                    }
+                } else if (sender instanceof Entity) {
+                    world = ((Entity) sender).getWorld();
+                } else if (sender instanceof BlockCommandSender) {
+                    world = ((BlockCommandSender) sender).getBlock().getWorld();
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <world>|status|cancel");
+                    return true;
+                }
+                if (!plugin.getSignResync().start(world, sender)) {
+                    sender.sendMessage(plugin.getLang("resync.already-running", "world", job.getWorld()));
+                }
+                return true;
+
             } else if ("sign".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.sign")) {
                 // legacy sub command, you can write the signs directly
                 if (!(sender instanceof Player)) {
@@ -207,11 +577,413 @@ public class PlotSignsCommand implements CommandExecutor {
                     sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " <region>");
                 }
                 return true;
+
+            } else if ("cart".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.cart")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(ChatColor.RED + "This command can only be run by a player!");
+                    return true;
+                }
+                Player player = (Player) sender;
+                PlotCart cart = plugin.getPlotCart();
+                String action = args.length > 1 ? args[1].toLowerCase(Locale.ROOT) : "list";
+                if ("add".equals(action)) {
+                    RegionManager rm = plugin.getRegionManager(player.getWorld());
+                    if (rm == null) {
+                        sender.sendMessage(plugin.getLang("error.world-not-supported", "world", player.getWorld().getName()));
+                        return true;
+                    }
+
+                    ProtectedRegion region;
+                    if (args.length > 2) {
+                        region = rm.getRegion(args[2]);
+                        if (region == null) {
+                            sender.sendMessage(plugin.getLang("error.unknown-region", "region", args[2]));
+                            return true;
+                        }
+                    } else {
+                        region = RegionLookup.findHighestPriorityRegion(rm, BukkitAdapter.adapt(player.getLocation()).toVector().toBlockPoint());
+                        if (region == null) {
+                            sender.sendMessage(plugin.getLang("error.no-region-at-location"));
+                            return true;
+                        }
+                    }
+
+                    if (region.getFlag(PlotSigns.BUYABLE_FLAG) == null || !region.getFlag(PlotSigns.BUYABLE_FLAG) || region.getFlag(PlotSigns.PRICE_FLAG) == null) {
+                        sender.sendMessage(plugin.getLang("buy.not-for-sale", "region", region.getId()));
+                        return true;
+                    }
+
+                    if (cart.contains(player.getUniqueId(), player.getWorld().getName(), region.getId())) {
+                        sender.sendMessage(plugin.getLang("cart.already-in-cart", "region", region.getId()));
+                    } else if (cart.add(player.getUniqueId(), player.getWorld().getName(), region.getId())) {
+                        sender.sendMessage(plugin.getLang("cart.added",
+                                "region", region.getId(),
+                                "size", String.valueOf(cart.get(player.getUniqueId()).size()),
+                                "max", String.valueOf(cart.getMaxSize())
+                        ));
+                    } else {
+                        sender.sendMessage(plugin.getLang("cart.full", "max", String.valueOf(cart.getMaxSize())));
+                    }
+
+                } else if ("remove".equals(action) && args.length > 2) {
+                    if (cart.remove(player.getUniqueId(), player.getWorld().getName(), args[2])) {
+                        sender.sendMessage(plugin.getLang("cart.removed", "region", args[2]));
+                    } else {
+                        sender.sendMessage(plugin.getLang("cart.not-in-cart", "region", args[2]));
+                    }
+
+                } else if ("clear".equals(action)) {
+                    cart.clear(player.getUniqueId());
+                    sender.sendMessage(plugin.getLang("cart.cleared"));
+
+                } else if ("list".equals(action)) {
+                    List<PlotCart.Item> items = cart.get(player.getUniqueId());
+                    if (items.isEmpty()) {
+                        sender.sendMessage(plugin.getLang("cart.empty"));
+                        return true;
+                    }
+                    sender.sendMessage(plugin.getLang("cart.header", "size", String.valueOf(items.size()), "max", String.valueOf(cart.getMaxSize())));
+                    double total = 0;
+                    for (PlotCart.Item item : items) {
+                        org.bukkit.World world = plugin.getServer().getWorld(item.getWorld());
+                        RegionManager rm = world != null ? plugin.getRegionManager(world) : null;
+                        ProtectedRegion region = rm != null ? rm.getRegion(item.getRegionId()) : null;
+                        Double price = region != null ? region.getFlag(PlotSigns.PRICE_FLAG) : null;
+                        if (price != null && world == player.getWorld()) {
+                            total += price;
+                        }
+                        sender.sendMessage(plugin.getLang("cart.entry",
+                                "region", item.getRegionId(),
+                                "world", item.getWorld(),
+                                "price", price != null ? String.valueOf(price) : "-",
+                                "type", region != null ? String.valueOf(region.getFlag(PlotSigns.PLOT_TYPE_FLAG)) : "-"
+                        ));
+                    }
+                    sender.sendMessage(plugin.getLang("cart.total", "price", String.valueOf(Math.round(total * 100) / 100.0)));
+
+                } else {
+                    sender.sendMessage(ChatColor.RED + "Usage: /" + label + " " + args[0] + " [add [<region>]|remove <region>|list|clear]");
+                }
+                return true;
+
+            } else if ("checkout".equalsIgnoreCase(args[0]) && sender.hasPermission("plotsigns.command.cart")) {
+                if (!(sender instanceof Player)) {
+                    sender.sendMessage(ChatColor.RED + "This command can only be run by a player!");
+                    return true;
+                }
+                Player player = (Player) sender;
+                List<PlotCart.Item> items = plugin.getPlotCart().get(player.getUniqueId());
+                if (items.isEmpty()) {
+                    sender.sendMessage(plugin.getLang("cart.empty"));
+                    return true;
+                }
+                RegionManager rm = plugin.getRegionManager(player.getWorld());
+                if (rm == null) {
+                    sender.sendMessage(plugin.getLang("error.world-not-supported", "world", player.getWorld().getName()));
+                    return true;
+                }
+
+                // Only the plots in the player's current world are bought, a purchase can't span several worlds
+                List<PlotCart.Item> bought = new ArrayList<>();
+                List<ProtectedRegion> regions = new ArrayList<>();
+                for (PlotCart.Item item : items) {
+                    if (!item.getWorld().equals(player.getWorld().getName())) {
+                        continue;
+                    }
+                    ProtectedRegion region = rm.getRegion(item.getRegionId());
+                    if (region == null) {
+                        sender.sendMessage(plugin.getLang("error.unknown-region", "region", item.getRegionId()));
+                        return true;
+                    }
+                    bought.add(item);
+                    regions.add(region);
+                }
+                if (regions.isEmpty()) {
+                    sender.sendMessage(plugin.getLang("cart.other-world", "count", String.valueOf(items.size())));
+                    return true;
+                }
+
+                double total = 0;
+                StringBuilder regionIds = new StringBuilder();
+                for (ProtectedRegion region : regions) {
+                    Double price = region.getFlag(PlotSigns.PRICE_FLAG);
+                    total += price != null ? price : 0;
+                    if (regionIds.length() > 0) {
+                        regionIds.append(", ");
+                    }
+                    regionIds.append(region.getId());
+                }
+                double totalPrice = Math.round(total * 100) / 100.0;
+                plugin.checkout(player, player.getWorld(), regions).whenComplete((v, e) -> {
+                    if (e != null) {
+                        sender.sendMessage(ChatColor.RED + "Error while trying to buy the plots in your cart! " + e.getMessage());
+                        return;
+                    }
+                    plugin.getPlotCart().removeAll(player.getUniqueId(), bought);
+                    sender.sendMessage(plugin.getLang("cart.bought",
+                            "count", String.valueOf(regions.size()),
+                            "price", String.valueOf(totalPrice),
+                            "regions", regionIds.toString()
+                    ));
+                    if (items.size() > bought.size()) {
+                        sender.sendMessage(plugin.getLang("cart.other-world", "count", String.valueOf(items.size() - bought.size())));
+                    }
+                });
+                return true;
             }
         }
         return false;
     }
 
+    /**
+     * Parse a region selector of the bulk command
+     * @param input The selector, either glob:&lt;pattern&gt;, regex:&lt;pattern&gt;, parent:&lt;region&gt; or just a glob pattern
+     * @return The predicate matching the selected regions
+     * @throws PatternSyntaxException if the regex is invalid
+     */
+    private Predicate<ProtectedRegion> parseSelector(String input) throws PatternSyntaxException {
+        String lower = input.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("regex:")) {
+            Pattern pattern = Pattern.compile(input.substring("regex:".length()), Pattern.CASE_INSENSITIVE);
+            return region -> pattern.matcher(region.getId()).matches();
+        } else if (lower.startsWith("parent:")) {
+            String parentId = input.substring("parent:".length());
+            return region -> {
+                for (ProtectedRegion parent = region.getParent(); parent != null; parent = parent.getParent()) {
+                    if (parent.getId().equalsIgnoreCase(parentId)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+        String glob = lower.startsWith("glob:") ? input.substring("glob:".length()) : input;
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > start) {
+                    regex.append(Pattern.quote(glob.substring(start, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+        Pattern pattern = Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+        return region -> pattern.matcher(region.getId()).matches();
+    }
+
+    /**
+     * Check listings against WorldGuard in case regions were changed outside of the plugin
+     * @param listings The listings to check
+     * @return Whether any listing was outdated
+     */
+    private boolean verifyListings(List<MarketIndex.Listing> listings) {
+        boolean changed = false;
+        for (MarketIndex.Listing listing : listings) {
+            org.bukkit.World world = plugin.getServer().getWorld(listing.getWorld());
+            RegionManager rm = world != null ? WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(world)) : null;
+            if (rm == null) {
+                plugin.getMarketIndex().clear(listing.getWorld());
+                changed = true;
+            } else if (plugin.getMarketIndex().verify(rm, listing)) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command cmd, String label, String[] args) {
+        if (args.length == 1) {
+            List<String> completions = new ArrayList<>();
+            String prefix = args[0].toLowerCase(Locale.ROOT);
+            for (Map.Entry<String, String> subCommand : SUB_COMMANDS.entrySet()) {
+                if (subCommand.getKey().startsWith(prefix) && sender.hasPermission(subCommand.getValue())) {
+                    completions.add(subCommand.getKey());
+                }
+            }
+            return completions;
+        }
+        if (args.length == 3 && "cart".equalsIgnoreCase(args[0]) && sender instanceof Player && sender.hasPermission("plotsigns.command.cart")) {
+            Player player = (Player) sender;
+            if ("add".equalsIgnoreCase(args[1])) {
+                return completeRegions(sender, args[2], (world, region) -> Boolean.TRUE.equals(region.getFlag(PlotSigns.BUYABLE_FLAG))
+                        && !plugin.getPlotCart().contains(player.getUniqueId(), world, region.getId()));
+            } else if ("remove".equalsIgnoreCase(args[1])) {
+                List<String> completions = new ArrayList<>();
+                String prefix = args[2].toLowerCase(Locale.ROOT);
+                for (PlotCart.Item item : plugin.getPlotCart().get(player.getUniqueId())) {
+                    if (item.getWorld().equals(player.getWorld().getName()) && item.getRegionId().startsWith(prefix)) {
+                        completions.add(item.getRegionId());
+                    }
+                }
+                return completions;
+            }
+        }
+        if (args.length != 2) {
+            return Collections.emptyList();
+        }
+        switch (args[0].toLowerCase(Locale.ROOT)) {
+            case "buy":
+            case "kaufen":
+                if (sender.hasPermission("plotsigns.command.buy.byregionid")) {
+                    return completeRegions(sender, args[1], (world, region) -> Boolean.TRUE.equals(region.getFlag(PlotSigns.BUYABLE_FLAG)));
+                }
+                break;
+            case "sell":
+            case "verkaufen":
+                return completeOwnedRegions(sender, args[1], "plotsigns.command.sell");
+            case "rent":
+                return completeOwnedRegions(sender, args[1], "plotsigns.command.rent");
+            case "type":
+            case "permission":
+                return completeOwnedRegions(sender, args[1], "plotsigns.command.type");
+            case "sign":
+                return completeOwnedRegions(sender, args[1], "plotsigns.command.sign");
+            case "unrent":
+                if (sender.hasPermission("plotsigns.command.unrent")) {
+                    UUID senderId = sender instanceof Player ? ((Player) sender).getUniqueId() : null;
+                    boolean others = senderId == null || sender.hasPermission("plotsigns.command.unrent.others");
+                    return completeRegions(sender, args[1], (world, region) -> {
+                        LeaseManager.Lease lease = plugin.getLeaseManager().getLease(world, region.getId());
+                        return lease != null && (others || lease.getTenantId().equals(senderId));
+                    });
+                }
+                break;
+            case "cart":
+                if (sender.hasPermission("plotsigns.command.cart")) {
+                    List<String> completions = new ArrayList<>();
+                    String prefix = args[1].toLowerCase(Locale.ROOT);
+                    for (String option : new String[] {"add", "remove", "list", "clear"}) {
+                        if (option.startsWith(prefix)) {
+                            completions.add(option);
+                        }
+                    }
+                    return completions;
+                }
+                break;
+            case "resync":
+                if (sender.hasPermission("plotsigns.command.resync")) {
+                    List<String> completions = new ArrayList<>();
+                    String prefix = args[1].toLowerCase(Locale.ROOT);
+                    for (String option : new String[] {"status", "cancel"}) {
+                        if (option.startsWith(prefix)) {
+                            completions.add(option);
+                        }
+                    }
+                    for (org.bukkit.World world : plugin.getServer().getWorlds()) {
+                        if (world.getName().toLowerCase(Locale.ROOT).startsWith(prefix)) {
+                            completions.add(world.getName());
+                        }
+                    }
+                    return completions;
+                }
+                break;
+        }
+        return Collections.emptyList();
+    }
+
+    private List<String> completeOwnedRegions(CommandSender sender, String prefix, String permission) {
+        if (!sender.hasPermission(permission)) {
+            return Collections.emptyList();
+        }
+        if (!(sender instanceof Player) || sender.hasPermission(permission + ".others")) {
+            return completeRegions(sender, prefix, (world, region) -> true);
+        }
+        UUID playerId = ((Player) sender).getUniqueId();
+        return completeRegions(sender, prefix, (world, region) -> region.getOwners().contains(playerId));
+    }
+
+    /**
+     * Complete region ids in the world of the sender or in all worlds if the sender has no location
+     * @param sender    The sender
+     * @param prefix    The start of the id
+     * @param filter    Which regions to include, gets the world name and the region
+     * @return The matching ids in alphabetical order per world
+     */
+    private List<String> completeRegions(CommandSender sender, String prefix, BiPredicate<String, ProtectedRegion> filter) {
+        List<org.bukkit.World> worlds;
+        if (sender instanceof Entity) {
+            worlds = Collections.singletonList(((Entity) sender).getWorld());
+        } else if (sender instanceof BlockCommandSender) {
+            worlds = Collections.singletonList(((BlockCommandSender) sender).getBlock().getWorld());
+        } else {
+            worlds = plugin.getServer().getWorlds();
+        }
+        List<String> completions = new ArrayList<>();
+        for (org.bukkit.World world : worlds) {
+            RegionManager rm = plugin.getRegionManager(world);
+            if (rm == null) {
+                continue;
+            }
+            plugin.getRegionLookup().complete(world.getName(), prefix, id -> {
+                ProtectedRegion region = rm.getRegion(id);
+                return region != null && !completions.contains(id) && filter.test(world.getName(), region);
+            }, COMPLETION_LIMIT - completions.size(), completions);
+            if (completions.size() >= COMPLETION_LIMIT) {
+                break;
+            }
+        }
+        return completions;
+    }
+
+    private void sendListings(CommandSender sender, MarketIndex.Result result, int page) {
+        if (result.getListings().isEmpty()) {
+            sender.sendMessage(plugin.getLang("list.empty"));
+            return;
+        }
+        int pages = (result.getTotal() + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE;
+        sender.sendMessage(plugin.getLang("list.header", "page", String.valueOf(page), "pages", String.valueOf(pages), "total", String.valueOf(result.getTotal())));
+        for (MarketIndex.Listing listing : result.getListings()) {
+            sender.sendMessage(plugin.getLang("list.entry",
+                    "region", listing.getRegionId(),
+                    "world", listing.getWorld(),
+                    "price", String.valueOf(listing.getPrice()),
+                    "type", listing.getType(),
+                    "size", listing.getSizeX() + "x" + listing.getSizeZ()
+            ));
+        }
+    }
+
+    /**
+     * Parse a rent period like 30m, 12h, 7d or 2w, plain numbers are days
+     * @param input The input string
+     * @return The period in minutes or -1 if the input is invalid
+     */
+    private static int parsePeriod(String input) {
+        if (input.isEmpty()) {
+            return -1;
+        }
+        int multiplier = 60 * 24;
+        String number = input;
+        switch (Character.toLowerCase(input.charAt(input.length() - 1))) {
+            case 'm':
+                multiplier = 1;
+                break;
+            case 'h':
+                multiplier = 60;
+                break;
+            case 'd':
+                break;
+            case 'w':
+                multiplier = 60 * 24 * 7;
+                break;
+            default:
+                number = input + " ";
+        }
+        try {
+            long minutes = Long.parseLong(number.substring(0, number.length() - 1)) * multiplier;
+            return minutes > 0 && minutes <= Integer.MAX_VALUE ? (int) minutes : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private ProtectedRegion getRegion(CommandSender sender, String id) {
         RegionManager regionManager;
         if (sender instanceof Entity) {
@@ -219,13 +991,7 @@ public class PlotSignsCommand implements CommandExecutor {
         } else if (sender instanceof BlockCommandSender) {
             regionManager = WorldGuard.getInstance().getPlatform().getRegionContainer().get(BukkitAdapter.adapt(((BlockCommandSender) sender).getBlock().getWorld()));
         } else {
-            for (RegionManager rm : WorldGuard.getInstance().getPlatform().getRegionContainer().getLoaded()) {
-                ProtectedRegion region = rm.getRegion(id);
-                if (region != null) {
-                    return region;
-                }
-            }
-            return null;
+            return plugin.getRegionLookup().getRegion(id);
         }
         if (regionManager == null) {
             sender.sendMessage(plugin.getLang("error.world-not-supported"));
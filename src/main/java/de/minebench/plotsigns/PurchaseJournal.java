@@ -0,0 +1,838 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Append-only journal of all stages of region purchases. Each stage is recorded before or right after
+ * it happened so that purchases which were interrupted by a crash can be completed or rolled back on
+ * the next start. Records are written on a separate thread and all records that queue up while the
+ * disk is busy are written with a single fsync. The finished purchases double as an audit trail.
+ */
+public class PurchaseJournal {
+    private static final String FILE_PREFIX = "purchases-";
+    private static final String FILE_SUFFIX = ".log";
+
+    private final PlotSigns plugin;
+    private final File folder;
+    private final ExecutorService io;
+
+    private final Queue<Record> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+
+    /**
+     * File index -> size of the file in bytes, only accessed from the io thread after loading
+     */
+    private final TreeMap<Integer, Long> files = new TreeMap<>();
+    private FileChannel channel = null;
+    private volatile int currentFile = 0;
+
+    /**
+     * All known transactions ordered by their id
+     */
+    private final TreeMap<Long, Transaction> transactions = new TreeMap<>();
+
+    /**
+     * Buyer or owner UUID -> transactions they took part in
+     */
+    private final Map<UUID, List<Transaction>> byPlayer = new HashMap<>();
+
+    /**
+     * Lower case world name + region id -> transactions of that region
+     */
+    private final Map<String, List<Transaction>> byRegion = new HashMap<>();
+
+    /**
+     * Lower case buyer name -> UUID of the buyer
+     */
+    private final Map<String, UUID> buyerNames = new HashMap<>();
+
+    private long nextId = 1;
+    private volatile long maxFileSize = 1024 * 1024;
+    private volatile int maxFiles = 10;
+
+    public PurchaseJournal(PlotSigns plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "journal");
+        this.io = Executors.newSingleThreadExecutor(r -> new Thread(r, plugin.getName() + " Journal"));
+    }
+
+    /**
+     * Set when the journal files get rotated and how many of them are kept
+     * @param maxFileSize   The size in bytes after which a new file is started
+     * @param maxFiles      The amount of files to keep
+     */
+    public void setLimits(long maxFileSize, int maxFiles) {
+        this.maxFileSize = Math.max(maxFileSize, 1024);
+        this.maxFiles = Math.max(maxFiles, 1);
+    }
+
+    /**
+     * Read all journal files. This has to be done before anything is recorded.
+     */
+    public synchronized void load() {
+        transactions.clear();
+        byPlayer.clear();
+        byRegion.clear();
+        buyerNames.clear();
+        files.clear();
+        nextId = 1;
+        File[] found = folder.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+        if (found != null) {
+            for (File file : found) {
+                try {
+                    files.put(Integer.parseInt(file.getName().substring(FILE_PREFIX.length(), file.getName().length() - FILE_SUFFIX.length())), file.length());
+                } catch (NumberFormatException e) {
+                    plugin.getLogger().log(Level.WARNING, "Invalid journal file " + file);
+                }
+            }
+        }
+        for (Map.Entry<Integer, Long> entry : files.entrySet()) {
+            File file = getFile(entry.getKey());
+            try {
+                String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                int lineStart = 0;
+                int lineEnd;
+                // A line without a line break at the end was only partially written before a crash
+                while ((lineEnd = content.indexOf('\n', lineStart)) > -1) {
+                    String line = content.substring(lineStart, lineEnd);
+                    lineStart = lineEnd + 1;
+                    try {
+                        apply(entry.getKey(), line.split("\t", -1));
+                    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                        plugin.getLogger().log(Level.WARNING, "Invalid journal entry '" + line + "' in " + file + ": " + e.getMessage());
+                    }
+                }
+                if (lineStart < content.length()) {
+                    plugin.getLogger().log(Level.WARNING, "Ignoring incomplete journal entry at the end of " + file);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while reading journal file " + file, e);
+            }
+        }
+        currentFile = files.isEmpty() ? 0 : files.lastKey();
+    }
+
+    private void apply(int file, String[] record) {
+        long id = Long.parseLong(record[0]);
+        long time = Long.parseLong(record[1]);
+        Stage stage = Stage.valueOf(record[2]);
+        if (stage == Stage.BEGIN) {
+            List<UUID> owners = new ArrayList<>();
+            if (!record[10].isEmpty()) {
+                for (String owner : record[10].split(",")) {
+                    owners.add(UUID.fromString(owner));
+                }
+            }
+            Transaction previous = transactions.remove(id);
+            if (previous != null) {
+                // The transaction was carried over to a newer file but the old one wasn't deleted yet
+                remove(previous);
+            }
+            add(new Transaction(id, file, time, UUID.fromString(record[3]), unescape(record[4]), unescape(record[5]),
+                    unescape(record[6]), Double.parseDouble(record[7]), unescape(record[8]), Double.parseDouble(record[9]), owners));
+            nextId = Math.max(nextId, id + 1);
+            return;
+        }
+        Transaction transaction = transactions.get(id);
+        if (transaction == null) {
+            if (id < nextId) {
+                // The file with the start of the transaction was deleted when the journal was rotated
+                return;
+            }
+            throw new IllegalArgumentException("Unknown transaction " + id);
+        }
+        transaction.apply(stage, record.length > 3 ? unescape(record[3]) : null);
+    }
+
+    private void add(Transaction transaction) {
+        transactions.put(transaction.id, transaction);
+        byPlayer.computeIfAbsent(transaction.buyerId, id -> new ArrayList<>()).add(transaction);
+        for (UUID ownerId : transaction.owners) {
+            byPlayer.computeIfAbsent(ownerId, id -> new ArrayList<>()).add(transaction);
+        }
+        byRegion.computeIfAbsent(getRegionKey(transaction.world, transaction.regionId), r -> new ArrayList<>()).add(transaction);
+        buyerNames.put(transaction.buyerName.toLowerCase(Locale.ROOT), transaction.buyerId);
+    }
+
+    /**
+     * Record the start of a purchase
+     * @param buyerId           The UUID of the player that buys the region
+     * @param buyerName         The name of the player that buys the region
+     * @param world             The world of the region
+     * @param regionId          The id of the region
+     * @param price             The price of the region
+     * @param type              The type of the region
+     * @param owners            The owners that get paid for the region
+     * @param earnedPerOwner    The amount that each owner gets
+     * @return The transaction of the purchase
+     */
+    public Transaction begin(UUID buyerId, String buyerName, String world, String regionId, double price, String type, Collection<UUID> owners, double earnedPerOwner) {
+        Transaction transaction;
+        synchronized (this) {
+            transaction = new Transaction(nextId++, currentFile, System.currentTimeMillis(),
+                    buyerId, buyerName, world, regionId, price, type != null ? type : "", earnedPerOwner, new ArrayList<>(owners));
+            add(transaction);
+        }
+        append(transaction, Stage.BEGIN, getBeginData(transaction));
+        return transaction;
+    }
+
+    private static String[] getBeginData(Transaction transaction) {
+        StringBuilder ownerList = new StringBuilder();
+        for (UUID ownerId : transaction.owners) {
+            if (ownerList.length() > 0) {
+                ownerList.append(',');
+            }
+            ownerList.append(ownerId);
+        }
+        return new String[] {
+                transaction.buyerId.toString(),
+                escape(transaction.buyerName),
+                escape(transaction.world),
+                escape(transaction.regionId),
+                String.valueOf(transaction.price),
+                escape(transaction.type),
+                String.valueOf(transaction.earnedPerOwner),
+                ownerList.toString()
+        };
+    }
+
+    /**
+     * Record that the price was withdrawn from the buyer
+     * @param transaction The transaction
+     */
+    public void withdrawn(Transaction transaction) {
+        record(transaction, Stage.WITHDRAWN, null);
+    }
+
+    /**
+     * Record that an owner received their share of the price
+     * @param transaction   The transaction
+     * @param ownerId       The UUID of the owner
+     */
+    public void paid(Transaction transaction, UUID ownerId) {
+        record(transaction, Stage.PAID, ownerId.toString());
+    }
+
+    /**
+     * Record that the tax of the purchase was deposited to the treasury
+     * @param transaction   The transaction
+     * @param amount        The tax
+     */
+    public void taxed(Transaction transaction, double amount) {
+        record(transaction, Stage.TAXED, String.valueOf(amount));
+    }
+
+    /**
+     * Record that the region was transferred to the buyer
+     * @param transaction The transaction
+     */
+    public void transferred(Transaction transaction) {
+        record(transaction, Stage.TRANSFERRED, null);
+    }
+
+    /**
+     * Record that the price was given back to the buyer
+     * @param transaction The transaction
+     */
+    public void refunded(Transaction transaction) {
+        record(transaction, Stage.REFUNDED, null);
+    }
+
+    /**
+     * Record that the share of an owner was taken back
+     * @param transaction   The transaction
+     * @param ownerId       The UUID of the owner
+     */
+    public void reversed(Transaction transaction, UUID ownerId) {
+        record(transaction, Stage.REVERSED, ownerId.toString());
+    }
+
+    /**
+     * Record that the purchase completed successfully
+     * @param transaction The transaction
+     */
+    public void commit(Transaction transaction) {
+        record(transaction, Stage.COMMIT, null);
+    }
+
+    /**
+     * Record that the purchase was aborted and all money movements were reverted
+     * @param transaction   The transaction
+     * @param reason        Why the purchase was aborted
+     */
+    public void rollback(Transaction transaction, String reason) {
+        record(transaction, Stage.ROLLBACK, reason != null ? reason : "");
+    }
+
+    private void record(Transaction transaction, Stage stage, String data) {
+        synchronized (this) {
+            transaction.apply(stage, data);
+        }
+        if (data != null) {
+            append(transaction, stage, escape(data));
+        } else {
+            append(transaction, stage);
+        }
+    }
+
+    private void append(Transaction transaction, Stage stage, String... data) {
+        Record record = new Record(format(transaction.id, System.currentTimeMillis(), stage, data));
+        transaction.lastWrite = record.written;
+        writeQueue.add(record);
+        if (writeScheduled.compareAndSet(false, true)) {
+            try {
+                io.execute(this::writeQueued);
+            } catch (RuntimeException e) {
+                writeScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Wait until all records of a transaction are on the disk
+     * @param transaction The transaction
+     * @throws IOException if the records could not be written
+     */
+    public void awaitWritten(Transaction transaction) throws IOException {
+        CompletableFuture<Void> written = transaction.lastWrite;
+        if (written == null) {
+            return;
+        }
+        try {
+            written.get(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the journal", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error while writing to the journal", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out while waiting for the journal", e);
+        }
+    }
+
+    /**
+     * Write all queued records with one fsync
+     */
+    private void writeQueued() {
+        writeScheduled.set(false);
+        List<Record> batch = new ArrayList<>();
+        Record record;
+        while ((record = writeQueue.poll()) != null) {
+            batch.add(record);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            FileChannel channel = getChannel();
+            long written = 0;
+            for (Record r : batch) {
+                ByteBuffer buffer = ByteBuffer.wrap(r.data);
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+            channel.force(false);
+            files.merge(files.lastKey(), written, Long::sum);
+            for (Record r : batch) {
+                r.written.complete(null);
+            }
+            if (files.lastEntry().getValue() >= maxFileSize) {
+                rotate();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Error while writing to the purchase journal", e);
+            for (Record r : batch) {
+                r.written.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static byte[] format(long id, long time, Stage stage, String... data) {
+        StringBuilder line = new StringBuilder();
+        line.append(id).append('\t').append(time).append('\t').append(stage.name());
+        for (String s : data) {
+            line.append('\t').append(s);
+        }
+        line.append('\n');
+        return line.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+            folder.mkdirs();
+            if (files.isEmpty()) {
+                files.put(0, 0L);
+            }
+            channel = FileChannel.open(getFile(files.lastKey()).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    /**
+     * Start a new file and delete the oldest ones. Transactions of a deleted file that are still open
+     * are carried over to the new file with their current state. The lock is only held to take a snapshot
+     * of the transactions as the server thread needs it to record purchases.
+     */
+    private void rotate() throws IOException {
+        channel.close();
+        channel = null;
+        files.put(files.lastKey() + 1, 0L);
+        currentFile = files.lastKey();
+        while (files.size() > maxFiles) {
+            int oldest = files.firstKey();
+            List<Transaction> open = new ArrayList<>();
+            List<byte[]> lines = new ArrayList<>();
+            List<Transaction> finished = new ArrayList<>();
+            synchronized (this) {
+                for (Transaction transaction : transactions.values()) {
+                    if (transaction.file <= oldest) {
+                        if (transaction.getState() == State.OPEN) {
+                            open.add(transaction);
+                            addStateRecords(transaction, lines);
+                        } else {
+                            finished.add(transaction);
+                        }
+                    }
+                }
+            }
+            if (!open.isEmpty()) {
+                carryOver(open, lines);
+            }
+            files.remove(oldest);
+            Files.deleteIfExists(getFile(oldest).toPath());
+            synchronized (this) {
+                for (Transaction transaction : finished) {
+                    transactions.remove(transaction.id);
+                    remove(transaction);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the records that restore the current state of a transaction
+     * @param transaction   The transaction
+     * @param lines         The list to add the formatted records to
+     */
+    private static void addStateRecords(Transaction transaction, List<byte[]> lines) {
+        lines.add(format(transaction.id, transaction.time, Stage.BEGIN, getBeginData(transaction)));
+        long now = System.currentTimeMillis();
+        if (transaction.withdrawn) {
+            lines.add(format(transaction.id, now, Stage.WITHDRAWN));
+        }
+        for (UUID ownerId : transaction.paid) {
+            lines.add(format(transaction.id, now, Stage.PAID, ownerId.toString()));
+        }
+        if (transaction.taxed) {
+            lines.add(format(transaction.id, now, Stage.TAXED, transaction.tax != null ? escape(transaction.tax) : "0"));
+        }
+        if (transaction.transferred) {
+            lines.add(format(transaction.id, now, Stage.TRANSFERRED));
+        }
+        if (transaction.refunded) {
+            lines.add(format(transaction.id, now, Stage.REFUNDED));
+        }
+        for (UUID ownerId : transaction.reversed) {
+            lines.add(format(transaction.id, now, Stage.REVERSED, ownerId.toString()));
+        }
+    }
+
+    /**
+     * Write the current state of transactions to the current file so that the files they started in can be deleted.
+     * Stages that are recorded after the snapshot was taken are queued and written to the new file afterwards.
+     * @param open  The open transactions
+     * @param lines The records of their state
+     */
+    private void carryOver(List<Transaction> open, List<byte[]> lines) throws IOException {
+        FileChannel channel = getChannel();
+        long written = 0;
+        for (byte[] line : lines) {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+        }
+        channel.force(false);
+        files.merge(files.lastKey(), written, Long::sum);
+        for (Transaction transaction : open) {
+            transaction.file = currentFile;
+        }
+        plugin.getLogger().log(Level.INFO, "Carried " + open.size() + " open purchases over to journal file " + currentFile);
+    }
+
+    private void remove(Transaction transaction) {
+        removeFrom(byPlayer, transaction.buyerId, transaction);
+        for (UUID ownerId : transaction.owners) {
+            removeFrom(byPlayer, ownerId, transaction);
+        }
+        removeFrom(byRegion, getRegionKey(transaction.world, transaction.regionId), transaction);
+    }
+
+    private static <K> void removeFrom(Map<K, List<Transaction>> map, K key, Transaction transaction) {
+        List<Transaction> list = map.get(key);
+        if (list != null) {
+            list.remove(transaction);
+            if (list.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Write all queued records and close the journal
+     */
+    public void close() {
+        io.execute(() -> {
+            writeQueued();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Error while closing the purchase journal", e);
+                }
+                channel = null;
+            }
+        });
+        io.shutdown();
+        try {
+            if (!io.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().log(Level.SEVERE, "Could not write the purchase journal in time!");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get all purchases that were neither committed nor rolled back
+     * @return The open transactions, oldest first
+     */
+    public synchronized List<Transaction> getOpen() {
+        List<Transaction> open = new ArrayList<>();
+        for (Transaction transaction : transactions.values()) {
+            if (transaction.getState() == State.OPEN) {
+                open.add(transaction);
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Get the UUID of a player that bought a region before
+     * @param name The name of the player
+     * @return The UUID or null if no purchase of that player is known
+     */
+    public synchronized UUID getBuyerId(String name) {
+        return buyerNames.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Query the recorded purchases, newest first
+     * @param playerId  Only return purchases where this player was the buyer or an owner, null for all
+     * @param world     Only return purchases in this world, null for all
+     * @param regionId  Only return purchases of this region, requires the world, null for all
+     * @param offset    How many matching purchases to skip
+     * @param limit     How many purchases to return at most
+     * @return The result
+     */
+    public synchronized Result query(UUID playerId, String world, String regionId, int offset, int limit) {
+        Collection<Transaction> candidates;
+        if (world != null && regionId != null) {
+            candidates = byRegion.getOrDefault(getRegionKey(world, regionId), Collections.emptyList());
+        } else if (playerId != null) {
+            candidates = byPlayer.getOrDefault(playerId, Collections.emptyList());
+        } else {
+            candidates = transactions.values();
+        }
+        List<Transaction> matching = new ArrayList<>();
+        for (Transaction transaction : candidates) {
+            if ((playerId == null || transaction.buyerId.equals(playerId) || transaction.owners.contains(playerId))
+                    && (world == null || transaction.world.equalsIgnoreCase(world))
+                    && (regionId == null || transaction.regionId.equalsIgnoreCase(regionId))) {
+                matching.add(transaction);
+            }
+        }
+        Collections.reverse(matching);
+        List<Transaction> page = offset < matching.size()
+                ? new ArrayList<>(matching.subList(offset, Math.min(matching.size(), offset + limit)))
+                : Collections.emptyList();
+        return new Result(page, matching.size());
+    }
+
+    private File getFile(int index) {
+        return new File(folder, FILE_PREFIX + index + FILE_SUFFIX);
+    }
+
+    private static String getRegionKey(String world, String regionId) {
+        return (world + " " + regionId).toLowerCase(Locale.ROOT);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\n", "\\n").replace("\t", "\\t");
+    }
+
+    private static String unescape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                char next = s.charAt(++i);
+                sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public enum Stage {
+        BEGIN,
+        WITHDRAWN,
+        PAID,
+        TAXED,
+        TRANSFERRED,
+        REFUNDED,
+        REVERSED,
+        COMMIT,
+        ROLLBACK
+    }
+
+    public enum State {
+        OPEN,
+        COMMITTED,
+        ROLLED_BACK
+    }
+
+    public static class Result {
+        private final List<Transaction> transactions;
+        private final int total;
+
+        private Result(List<Transaction> transactions, int total) {
+            this.transactions = transactions;
+            this.total = total;
+        }
+
+        public List<Transaction> getTransactions() {
+            return transactions;
+        }
+
+        /**
+         * Get the amount of all transactions matching the query
+         * @return The total amount
+         */
+        public int getTotal() {
+            return total;
+        }
+    }
+
+    public static class Transaction {
+        private final long id;
+        /**
+         * The file that contains the latest start record of the transaction
+         */
+        private volatile int file;
+        private final long time;
+        private final UUID buyerId;
+        private final String buyerName;
+        private final String world;
+        private final String regionId;
+        private final double price;
+        private final String type;
+        private final double earnedPerOwner;
+        private final List<UUID> owners;
+
+        private final Set<UUID> paid = ConcurrentHashMap.newKeySet();
+        private final Set<UUID> reversed = ConcurrentHashMap.newKeySet();
+        private volatile boolean withdrawn = false;
+        private volatile boolean transferred = false;
+        private volatile boolean taxed = false;
+        private volatile String tax = null;
+        private volatile boolean refunded = false;
+        private volatile State state = State.OPEN;
+        private volatile String reason = null;
+        private volatile CompletableFuture<Void> lastWrite = null;
+
+        private Transaction(long id, int file, long time, UUID buyerId, String buyerName, String world, String regionId, double price, String type, double earnedPerOwner, List<UUID> owners) {
+            this.id = id;
+            this.file = file;
+            this.time = time;
+            this.buyerId = buyerId;
+            this.buyerName = buyerName;
+            this.world = world;
+            this.regionId = regionId;
+            this.price = price;
+            this.type = type;
+            this.earnedPerOwner = earnedPerOwner;
+            this.owners = Collections.unmodifiableList(owners);
+        }
+
+        private void apply(Stage stage, String data) {
+            switch (stage) {
+                case WITHDRAWN:
+                    withdrawn = true;
+                    break;
+                case PAID:
+                    paid.add(UUID.fromString(data));
+                    break;
+                case TAXED:
+                    taxed = true;
+                    tax = data;
+                    break;
+                case TRANSFERRED:
+                    transferred = true;
+                    break;
+                case REFUNDED:
+                    refunded = true;
+                    break;
+                case REVERSED:
+                    reversed.add(UUID.fromString(data));
+                    break;
+                case COMMIT:
+                    state = State.COMMITTED;
+                    break;
+                case ROLLBACK:
+                    state = State.ROLLED_BACK;
+                    reason = data;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unexpected stage " + stage);
+            }
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public UUID getBuyerId() {
+            return buyerId;
+        }
+
+        public String getBuyerName() {
+            return buyerName;
+        }
+
+        public String getWorld() {
+            return world;
+        }
+
+        public String getRegionId() {
+            return regionId;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public double getEarnedPerOwner() {
+            return earnedPerOwner;
+        }
+
+        public List<UUID> getOwners() {
+            return owners;
+        }
+
+        public boolean isPaid(UUID ownerId) {
+            return paid.contains(ownerId);
+        }
+
+        public boolean isReversed(UUID ownerId) {
+            return reversed.contains(ownerId);
+        }
+
+        public boolean isWithdrawn() {
+            return withdrawn;
+        }
+
+        public boolean isTransferred() {
+            return transferred;
+        }
+
+        /**
+         * @return Whether the tax was deposited to the treasury
+         */
+        public boolean isTaxed() {
+            return taxed;
+        }
+
+        public boolean isRefunded() {
+            return refunded;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return Why the purchase was rolled back or null if it wasn't
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+
+    private static class Record {
+        private final byte[] data;
+        private final CompletableFuture<Void> written = new CompletableFuture<>();
+
+        private Record(byte[] data) {
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Prefix tree of region ids for completing ids without looking at every region of a world.
+ * Ids are returned in alphabetical order.
+ */
+public class RegionIdTrie {
+    private final Node root = new Node();
+    private int size = 0;
+
+    /**
+     * Add an id to the trie
+     * @param id The region id
+     * @return Whether the id wasn't already in the trie
+     */
+    public synchronized boolean add(String id) {
+        Node node = root;
+        for (int i = 0; i < id.length(); i++) {
+            node = node.children.computeIfAbsent(id.charAt(i), c -> new Node());
+        }
+        if (node.terminal) {
+            return false;
+        }
+        node.terminal = true;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove an id from the trie, nodes that aren't needed anymore are pruned
+     * @param id The region id
+     * @return Whether the id was in the trie
+     */
+    public synchronized boolean remove(String id) {
+        Node[] path = new Node[id.length() + 1];
+        path[0] = root;
+        for (int i = 0; i < id.length(); i++) {
+            path[i + 1] = path[i].children.get(id.charAt(i));
+            if (path[i + 1] == null) {
+                return false;
+            }
+        }
+        Node node = path[id.length()];
+        if (!node.terminal) {
+            return false;
+        }
+        node.terminal = false;
+        size--;
+        for (int i = id.length(); i > 0 && !path[i].terminal && path[i].children.isEmpty(); i--) {
+            path[i - 1].children.remove(id.charAt(i - 1));
+        }
+        return true;
+    }
+
+    /**
+     * Collect the ids starting with a prefix
+     * @param prefix    The prefix
+     * @param filter    Which ids to include
+     * @param limit     The maximum amount of ids to add
+     * @param results   The list to add the ids to
+     * @return The amount of ids that were added
+     */
+    public int collect(String prefix, Predicate<String> filter, int limit, List<String> results) {
+        return collect(prefix, filter, limit, Integer.MAX_VALUE, results);
+    }
+
+    /**
+     * Collect the ids starting with a prefix
+     * @param prefix    The prefix
+     * @param filter    Which ids to include
+     * @param limit     The maximum amount of ids to add
+     * @param maxVisits The maximum amount of nodes to visit below the prefix, stops early if a filter matches few ids
+     * @param results   The list to add the ids to
+     * @return The amount of ids that were added
+     */
+    public synchronized int collect(String prefix, Predicate<String> filter, int limit, int maxVisits, List<String> results) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        if (node == null || limit <= 0) {
+            return 0;
+        }
+        int before = results.size();
+        collect(node, new StringBuilder(prefix), filter, before + limit, new int[] {maxVisits}, results);
+        return results.size() - before;
+    }
+
+    private static void collect(Node node, StringBuilder id, Predicate<String> filter, int max, int[] visitsLeft, List<String> results) {
+        if (--visitsLeft[0] < 0) {
+            return;
+        }
+        if (node.terminal) {
+            String value = id.toString();
+            if (filter.test(value)) {
+                results.add(value);
+            }
+        }
+        for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+            if (results.size() >= max || visitsLeft[0] <= 0) {
+                return;
+            }
+            id.append(child.getKey());
+            collect(child.getValue(), id, filter, max, visitsLeft, results);
+            id.setLength(id.length() - 1);
+        }
+    }
+
+    /**
+     * @return The amount of ids in the trie
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private static class Node {
+        private final TreeMap<Character, Node> children = new TreeMap<>();
+        private boolean terminal = false;
+    }
+}
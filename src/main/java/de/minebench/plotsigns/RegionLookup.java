@@ -0,0 +1,290 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.World;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Index of the region ids of all worlds so that regions can be found without knowing their world,
+ * and a short-lived cache of the highest priority region at a block.
+ */
+public class RegionLookup {
+    /**
+     * How many nodes of the prefix tree are visited at most when completing an id
+     */
+    private static final int MAX_COMPLETION_VISITS = 5000;
+
+    private final PlotSigns plugin;
+
+    /**
+     * Region id -> names of the worlds that contain a region with that id
+     */
+    private final Map<String, Set<String>> worldsById = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> ids of the regions in that world
+     */
+    private final Map<String, Set<String>> idsByWorld = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> prefix tree of the ids of the regions in that world
+     */
+    private final Map<String, RegionIdTrie> tries = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> packed block position -> id of the highest priority region there.
+     * Regions added by WorldGuard commands are only noticed once the entry expired.
+     */
+    private final Map<String, Cache<Long, String>> topRegions = new ConcurrentHashMap<>();
+
+    public RegionLookup(PlotSigns plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Build the index of a world from scratch
+     * @param world The name of the world
+     * @param rm    The world's RegionManager
+     */
+    public void rebuild(String world, RegionManager rm) {
+        clear(world);
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        for (String id : rm.getRegions().keySet()) {
+            ids.add(normalize(id));
+        }
+        idsByWorld.put(world, ids);
+        RegionIdTrie trie = new RegionIdTrie();
+        for (String id : ids) {
+            worldsById.computeIfAbsent(id, i -> ConcurrentHashMap.newKeySet()).add(world);
+            trie.add(id);
+        }
+        tries.put(world, trie);
+    }
+
+    /**
+     * Remove all indexed data of a world
+     * @param world The name of the world
+     */
+    public void clear(String world) {
+        topRegions.remove(world);
+        tries.remove(world);
+        Set<String> ids = idsByWorld.remove(world);
+        if (ids != null) {
+            for (String id : ids) {
+                remove(world, id);
+            }
+        }
+    }
+
+    /**
+     * Add and remove ids so that the index of a world matches its regions again, e.g. after
+     * regions were created or removed with WorldGuard commands. Can be run asynchronously.
+     * @param world     The name of the world
+     * @param regionIds The ids of all regions of the world
+     */
+    public void sync(String world, Collection<String> regionIds) {
+        Set<String> indexed = idsByWorld.get(world);
+        if (indexed == null) {
+            // The world isn't indexed (anymore)
+            return;
+        }
+        Set<String> current = new HashSet<>();
+        for (String id : regionIds) {
+            current.add(normalize(id));
+        }
+        for (String id : current) {
+            if (!indexed.contains(id) && idsByWorld.get(world) == indexed) {
+                add(world, id);
+            }
+        }
+        for (String id : new ArrayList<>(indexed)) {
+            if (!current.contains(id)) {
+                remove(world, id);
+            }
+        }
+    }
+
+    private void add(String world, String id) {
+        if (idsByWorld.computeIfAbsent(world, w -> ConcurrentHashMap.newKeySet()).add(id)) {
+            worldsById.computeIfAbsent(id, i -> ConcurrentHashMap.newKeySet()).add(world);
+            tries.computeIfAbsent(world, w -> new RegionIdTrie()).add(id);
+        }
+    }
+
+    private void remove(String world, String id) {
+        worldsById.computeIfPresent(id, (i, worlds) -> {
+            worlds.remove(world);
+            return worlds.isEmpty() ? null : worlds;
+        });
+        Set<String> ids = idsByWorld.get(world);
+        if (ids != null && ids.remove(id)) {
+            RegionIdTrie trie = tries.get(world);
+            if (trie != null) {
+                trie.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Complete a region id. Only a limited amount of ids is checked against the filter
+     * so that a filter which matches few regions doesn't walk all ids of a big world.
+     * @param world     The name of the world to search in
+     * @param prefix    The start of the id
+     * @param filter    Which ids to include
+     * @param limit     The maximum amount of ids to add
+     * @param results   The list to add the ids to
+     */
+    public void complete(String world, String prefix, Predicate<String> filter, int limit, List<String> results) {
+        RegionIdTrie trie = tries.get(world);
+        if (trie != null) {
+            trie.collect(normalize(prefix), filter, limit, MAX_COMPLETION_VISITS, results);
+        }
+    }
+
+    /**
+     * Find a region by its id in any world. If several worlds contain a region with that id the first one found is returned.
+     * @param id The id of the region
+     * @return The region or null if no loaded world contains it
+     */
+    public ProtectedRegion getRegion(String id) {
+        String normalized = normalize(id);
+        for (String world : worldsById.getOrDefault(normalized, Collections.emptySet())) {
+            ProtectedRegion region = getRegion(world, normalized);
+            if (region != null) {
+                return region;
+            }
+        }
+        // Not indexed, it might have been created with WorldGuard after the world was indexed
+        for (World world : plugin.getServer().getWorlds()) {
+            ProtectedRegion region = getRegion(world.getName(), normalized);
+            if (region != null) {
+                return region;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the name of the world that a region is in
+     * @param region The region
+     * @return The world's name or null if the region isn't in any loaded world
+     */
+    public String getWorldName(ProtectedRegion region) {
+        String id = normalize(region.getId());
+        for (String world : worldsById.getOrDefault(id, Collections.emptySet())) {
+            if (getRegion(world, id) == region) {
+                return world;
+            }
+        }
+        for (World world : plugin.getServer().getWorlds()) {
+            if (getRegion(world.getName(), id) == region) {
+                return world.getName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Look up a region in a world and keep the index in sync with the result
+     */
+    private ProtectedRegion getRegion(String worldName, String id) {
+        World world = plugin.getServer().getWorld(worldName);
+        RegionManager rm = world != null ? plugin.getRegionManager(world) : null;
+        ProtectedRegion region = rm != null ? rm.getRegion(id) : null;
+        if (region != null) {
+            add(worldName, id);
+        } else {
+            remove(worldName, id);
+        }
+        return region;
+    }
+
+    /**
+     * Get the region with the highest priority at a block. The result is cached for a few seconds so
+     * regions that were just created or changed might not be returned yet. Only use this for lookups
+     * that don't lead to a purchase, use {@link #findHighestPriorityRegion(RegionManager, BlockVector3)} for those.
+     * @param world The world
+     * @param rm    The world's RegionManager
+     * @param point The position of the block
+     * @return The region or null if there is none at that position
+     */
+    public ProtectedRegion getHighestPriorityRegion(World world, RegionManager rm, BlockVector3 point) {
+        Cache<Long, String> cache = topRegions.computeIfAbsent(world.getName(), w -> CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(10, TimeUnit.SECONDS)
+                .build());
+        long key = pack(point);
+        String cached = cache.getIfPresent(key);
+        if (cached != null) {
+            ProtectedRegion region = rm.getRegion(cached);
+            if (region != null && region.contains(point)) {
+                return region;
+            }
+        }
+
+        ProtectedRegion highest = findHighestPriorityRegion(rm, point);
+        if (highest != null) {
+            cache.put(key, highest.getId());
+        } else {
+            cache.invalidate(key);
+        }
+        return highest;
+    }
+
+    /**
+     * Get the region with the highest priority at a block directly from WorldGuard without using the cache
+     * @param rm    The world's RegionManager
+     * @param point The position of the block
+     * @return The region or null if there is none at that position
+     */
+    public static ProtectedRegion findHighestPriorityRegion(RegionManager rm, BlockVector3 point) {
+        ProtectedRegion highest = null;
+        for (ProtectedRegion region : rm.getApplicableRegions(point).getRegions()) {
+            if (highest == null || region.getPriority() > highest.getPriority()) {
+                highest = region;
+            }
+        }
+        return highest;
+    }
+
+    private static long pack(BlockVector3 point) {
+        return ((long) point.getBlockX() & 0x3FFFFFF) << 38 | ((long) point.getBlockZ() & 0x3FFFFFF) << 12 | (long) point.getBlockY() & 0xFFF;
+    }
+
+    private static String normalize(String id) {
+        return id.toLowerCase(Locale.ROOT);
+    }
+}
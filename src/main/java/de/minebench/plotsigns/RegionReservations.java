@@ -0,0 +1,134 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reservations of regions that are currently being bought. Each purchase gets a unique token
+ * which is required to release the reservation again so that a purchase that timed out
+ * can't release the reservation of another one.
+ */
+public class RegionReservations {
+
+    /**
+     * Returned by {@link #reserve(String, String, UUID)} when the player already has a reservation for the region
+     */
+    public static final long ALREADY_RESERVED = 0;
+
+    /**
+     * Returned by {@link #reserve(String, String, UUID)} when another player has a reservation for the region
+     */
+    public static final long RESERVED_BY_OTHER = -1;
+
+    private final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+    private final AtomicLong tokens = new AtomicLong();
+    private volatile long timeout;
+
+    /**
+     * @param timeout How long a reservation is valid in seconds
+     */
+    public RegionReservations(long timeout) {
+        setTimeout(timeout);
+    }
+
+    /**
+     * Set how long a reservation is valid
+     * @param timeout The timeout in seconds
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = TimeUnit.SECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Try to reserve a region for a player
+     * @param world     The name of the world
+     * @param regionId  The id of the region
+     * @param playerId  The UUID of the player
+     * @return The token of the new reservation (always positive), {@link #ALREADY_RESERVED} if the player
+     *         already has a reservation for the region or {@link #RESERVED_BY_OTHER} if someone else has one
+     */
+    public long reserve(String world, String regionId, UUID playerId) {
+        long now = System.nanoTime();
+        long token = tokens.incrementAndGet();
+        Reservation reservation = reservations.compute(getKey(world, regionId), (k, existing) -> {
+            if (existing == null || existing.expires - now < 0) {
+                return new Reservation(token, playerId, now + timeout);
+            }
+            return existing;
+        });
+        if (reservation.token == token) {
+            return token;
+        }
+        return reservation.playerId.equals(playerId) ? ALREADY_RESERVED : RESERVED_BY_OTHER;
+    }
+
+    /**
+     * Check whether a reservation is still valid
+     * @param world     The name of the world
+     * @param regionId  The id of the region
+     * @param token     The token of the reservation
+     * @return Whether the reservation exists and didn't time out yet
+     */
+    public boolean isValid(String world, String regionId, long token) {
+        Reservation reservation = reservations.get(getKey(world, regionId));
+        return reservation != null && reservation.token == token && reservation.expires - System.nanoTime() >= 0;
+    }
+
+    /**
+     * Check whether a region is currently reserved
+     * @param world     The name of the world
+     * @param regionId  The id of the region
+     * @return Whether there is a reservation that didn't time out yet
+     */
+    public boolean isReserved(String world, String regionId) {
+        Reservation reservation = reservations.get(getKey(world, regionId));
+        return reservation != null && reservation.expires - System.nanoTime() >= 0;
+    }
+
+    /**
+     * Release a reservation. Does nothing if the region was reserved with another token in the meantime.
+     * @param world     The name of the world
+     * @param regionId  The id of the region
+     * @param token     The token of the reservation
+     */
+    public void release(String world, String regionId, long token) {
+        reservations.computeIfPresent(getKey(world, regionId), (k, existing) -> existing.token == token ? null : existing);
+    }
+
+    private static String getKey(String world, String regionId) {
+        return world + " " + regionId;
+    }
+
+    private static class Reservation {
+        private final long token;
+        private final UUID playerId;
+        private final long expires;
+
+        private Reservation(long token, UUID playerId, long expires) {
+            this.token = token;
+            this.playerId = playerId;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Immutable snapshot of the plugin's configuration. A new instance is created on each
+ * (re-)load so that the hot paths never have to look anything up in the YAML tree.
+ */
+public final class Settings {
+    private static final String COLOR_CODES = "0123456789AaBbCcDdEeFfKkLlMmNnOoRrXx";
+
+    private final String sellLine;
+    private final char[] sellLineUpper;
+    private final char[] sellLineLower;
+    private final List<String> sellFormat;
+    private final LangTemplate[] soldLines;
+    private final boolean updateAllSellSigns;
+    private final double taxFixed;
+    private final double taxShare;
+    private final String treasuryAccount;
+    private final long treasuryFlushInterval;
+    private final boolean economyAsync;
+    private final long reservationTimeout;
+    private final int maxMessagesPerPlayer;
+    private final long journalMaxFileSize;
+    private final int journalMaxFiles;
+    private final int typeCountMaxNumber;
+    private final long typeLimitCacheDuration;
+    private final long typeCountVerifyInterval;
+    private final long regionIndexSyncInterval;
+    private final long statsDumpInterval;
+    private final long signUpdateBudget;
+    private final double signClickRate;
+    private final int signClickBurst;
+    private final long signClickCooldown;
+    private final int cartMaxSize;
+    private final String storageType;
+    private final String storageHost;
+    private final int storagePort;
+    private final String storageDatabase;
+    private final String storageUser;
+    private final String storagePassword;
+    private final int storagePoolSize;
+    private final String storageTablePrefix;
+    private final Map<String, Integer> typeGroups;
+    private final Map<String, LangTemplate> lang;
+
+    /**
+     * Parse the settings from a configuration
+     * @param config The configuration, missing values are taken from its defaults
+     * @param logger The logger to log invalid values to
+     */
+    public Settings(Configuration config, Logger logger) {
+        sellLine = config.getString("sign.sell");
+        sellLineUpper = new char[sellLine != null ? sellLine.length() : 0];
+        sellLineLower = new char[sellLineUpper.length];
+        for (int i = 0; i < sellLineUpper.length; i++) {
+            sellLineUpper[i] = Character.toUpperCase(sellLine.charAt(i));
+            sellLineLower[i] = Character.toLowerCase(sellLine.charAt(i));
+        }
+
+        List<String> sellFormat = new ArrayList<>();
+        for (String line : config.getStringList("sign.sellformat")) {
+            String format = ChatColor.translateAlternateColorCodes('&', line);
+            if (ChatColor.stripColor(format).isEmpty()) {
+                sellFormat.add(format);
+            } else {
+                sellFormat.add("");
+                logger.log(Level.SEVERE, "Format strings can only contain color/formatting codes! '" + line + "' contains '" + ChatColor.stripColor(format) + "'!");
+            }
+        }
+        this.sellFormat = Collections.unmodifiableList(sellFormat);
+
+        List<String> soldLines = config.getStringList("sign.sold");
+        this.soldLines = new LangTemplate[soldLines.size()];
+        for (int i = 0; i < soldLines.size(); i++) {
+            this.soldLines[i] = LangTemplate.compile(soldLines.get(i));
+        }
+
+        updateAllSellSigns = config.getBoolean("update-all-sell-signs");
+        taxFixed = config.getDouble("tax.fixed", 0);
+        taxShare = config.getDouble("tax.share", 0);
+        treasuryAccount = config.getString("tax.treasury.account", "");
+        treasuryFlushInterval = config.getLong("tax.treasury.flush-interval");
+        economyAsync = config.getBoolean("economy.async");
+        reservationTimeout = config.getLong("economy.reservation-timeout");
+        maxMessagesPerPlayer = config.getInt("notifications.max-per-player");
+        journalMaxFileSize = config.getLong("journal.max-file-size") * 1024;
+        journalMaxFiles = config.getInt("journal.max-files");
+        typeCountMaxNumber = config.getInt("type-counts.max-number");
+        typeLimitCacheDuration = config.getLong("type-counts.cache-duration");
+        typeCountVerifyInterval = config.getLong("type-counts.verify-interval", 300);
+        regionIndexSyncInterval = config.getLong("region-index.sync-interval", 30);
+        statsDumpInterval = config.getLong("stats.dump-interval");
+        signUpdateBudget = (long) (config.getDouble("sign-updates.tick-budget") * TimeUnit.MILLISECONDS.toNanos(1));
+        signClickRate = config.getDouble("sign-clicks.rate");
+        signClickBurst = config.getInt("sign-clicks.burst");
+        signClickCooldown = config.getLong("sign-clicks.cooldown");
+        cartMaxSize = config.getInt("cart.max-size");
+        storageType = config.getString("storage.type", "none").toLowerCase(Locale.ROOT);
+        storageHost = config.getString("storage.mysql.host");
+        storagePort = config.getInt("storage.mysql.port");
+        storageDatabase = config.getString("storage.mysql.database");
+        storageUser = config.getString("storage.mysql.user");
+        storagePassword = config.getString("storage.mysql.password");
+        storagePoolSize = config.getInt("storage.mysql.pool-size");
+        storageTablePrefix = config.getString("storage.table-prefix", "plotsigns_");
+
+        Map<String, Integer> typeGroups = new HashMap<>();
+        ConfigurationSection groups = config.getConfigurationSection("type-counts.groups");
+        if (groups != null) {
+            for (String group : groups.getKeys(false)) {
+                typeGroups.put(group, groups.getInt(group));
+            }
+        }
+        this.typeGroups = Collections.unmodifiableMap(typeGroups);
+
+        Set<String> langKeys = new HashSet<>();
+        if (config.isConfigurationSection("lang")) {
+            langKeys.addAll(config.getConfigurationSection("lang").getKeys(true));
+        }
+        if (config.getDefaults() != null && config.getDefaults().isConfigurationSection("lang")) {
+            langKeys.addAll(config.getDefaults().getConfigurationSection("lang").getKeys(true));
+        }
+        Map<String, LangTemplate> lang = new HashMap<>();
+        for (String key : langKeys) {
+            if (config.isString("lang." + key)) {
+                lang.put(key, LangTemplate.compile(config.getString("lang." + key)));
+            }
+        }
+        this.lang = Collections.unmodifiableMap(lang);
+    }
+
+    public String getSellLine() {
+        return sellLine;
+    }
+
+    /**
+     * Check whether a line of a sign matches the sell line while ignoring color codes and case.
+     * This doesn't create any new strings unlike stripping the colors first.
+     * @param line The line
+     * @return Whether the line is the sell line
+     */
+    public boolean isSellLine(String line) {
+        if (sellLine == null || line == null) {
+            return false;
+        }
+        int j = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ChatColor.COLOR_CHAR && i + 1 < line.length() && COLOR_CODES.indexOf(line.charAt(i + 1)) > -1) {
+                i++;
+                continue;
+            }
+            if (j >= sellLineUpper.length || (Character.toUpperCase(c) != sellLineUpper[j] && Character.toLowerCase(c) != sellLineLower[j])) {
+                return false;
+            }
+            j++;
+        }
+        return j == sellLineUpper.length;
+    }
+
+    public List<String> getSellFormat() {
+        return sellFormat;
+    }
+
+    /**
+     * Get the lines of a sell sign
+     * @param regionId  The id of the region
+     * @param price     The price of the region
+     * @param type      The type of the region, null if it has none
+     * @return An array with the length 4 with the formatted lines
+     */
+    public String[] getSellLines(String regionId, double price, String type) {
+        String[] lines = new String[4];
+        lines[0] = sellLine;
+        lines[1] = regionId;
+        lines[2] = String.valueOf(price);
+        lines[3] = type != null ? type : "";
+
+        for (int i = 0; i < sellFormat.size() && i < lines.length; i++) {
+            lines[i] = sellFormat.get(i) + lines[i];
+        }
+        return lines;
+    }
+
+    /**
+     * Get the lines of a sold sign
+     * @param regionId  The id of the region
+     * @param player    The name of the player that bought the region
+     * @return An array with the length 4 with the lines
+     */
+    public String[] getSoldLines(String regionId, String player) {
+        String[] lines = new String[4];
+        for (int i = 0; i < lines.length; i++) {
+            if (i < soldLines.length) {
+                lines[i] = soldLines[i].render("region", regionId, "player", player);
+            } else {
+                lines[i] = "";
+            }
+        }
+        return lines;
+    }
+
+    public boolean isUpdateAllSellSigns() {
+        return updateAllSellSigns;
+    }
+
+    /**
+     * @return How many nanoseconds per tick can be spent on updating sell signs
+     */
+    public long getSignUpdateBudget() {
+        return signUpdateBudget;
+    }
+
+    public double getTaxFixed() {
+        return taxFixed;
+    }
+
+    public double getTaxShare() {
+        return taxShare;
+    }
+
+    /**
+     * @return The name or UUID of the account that receives the taxes, empty if taxes shouldn't go anywhere
+     */
+    public String getTreasuryAccount() {
+        return treasuryAccount;
+    }
+
+    /**
+     * @return How many seconds to collect taxes and payouts to offline owners before depositing them, 0 or less deposits them directly
+     */
+    public long getTreasuryFlushInterval() {
+        return treasuryFlushInterval;
+    }
+
+    public boolean isEconomyAsync() {
+        return economyAsync;
+    }
+
+    public long getReservationTimeout() {
+        return reservationTimeout;
+    }
+
+    public int getMaxMessagesPerPlayer() {
+        return maxMessagesPerPlayer;
+    }
+
+    /**
+     * @return The size in bytes after which a new journal file is started
+     */
+    public long getJournalMaxFileSize() {
+        return journalMaxFileSize;
+    }
+
+    public int getJournalMaxFiles() {
+        return journalMaxFiles;
+    }
+
+    /**
+     * @return How many seconds to wait between writing the stats to the stats.prom file, 0 or less disables it
+     */
+    public long getStatsDumpInterval() {
+        return statsDumpInterval;
+    }
+
+    /**
+     * @return How many clicks on plot signs per second a player can do on average
+     */
+    public double getSignClickRate() {
+        return signClickRate;
+    }
+
+    public int getSignClickBurst() {
+        return signClickBurst;
+    }
+
+    /**
+     * @return Milliseconds in which repeated clicks on the same sign are ignored
+     */
+    public long getSignClickCooldown() {
+        return signClickCooldown;
+    }
+
+    /**
+     * @return How many regions a player can put into the cart for one checkout
+     */
+    public int getCartMaxSize() {
+        return cartMaxSize;
+    }
+
+    /**
+     * @return The type of the market storage: none, sqlite or mysql
+     */
+    public String getStorageType() {
+        return storageType;
+    }
+
+    public String getStorageHost() {
+        return storageHost;
+    }
+
+    public int getStoragePort() {
+        return storagePort;
+    }
+
+    public String getStorageDatabase() {
+        return storageDatabase;
+    }
+
+    public String getStorageUser() {
+        return storageUser;
+    }
+
+    public String getStoragePassword() {
+        return storagePassword;
+    }
+
+    public int getStoragePoolSize() {
+        return storagePoolSize;
+    }
+
+    public String getStorageTablePrefix() {
+        return storageTablePrefix;
+    }
+
+    public int getTypeCountMaxNumber() {
+        return typeCountMaxNumber;
+    }
+
+    public long getTypeLimitCacheDuration() {
+        return typeLimitCacheDuration;
+    }
+
+    /**
+     * @return How many seconds are between the background checks of all regions for the type counts, 0 disables them
+     */
+    public long getTypeCountVerifyInterval() {
+        return typeCountVerifyInterval;
+    }
+
+    /**
+     * @return How many seconds are between the background checks for regions that were created or removed outside of the plugin, 0 disables them
+     */
+    public long getRegionIndexSyncInterval() {
+        return regionIndexSyncInterval;
+    }
+
+    /**
+     * Get the maximum amount of regions of a configured type group
+     * @param group The name of the group
+     * @return The amount or null if no such group is configured
+     */
+    public Integer getTypeGroupAmount(String group) {
+        return typeGroups.get(group);
+    }
+
+    /**
+     * Get a language template
+     * @param key The key of the message below the lang section
+     * @return The template or null if there is no message with that key
+     */
+    public LangTemplate getLang(String key) {
+        return lang.get(key);
+    }
+}
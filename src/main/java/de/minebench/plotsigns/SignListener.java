@@ -24,23 +24,32 @@ import com.sk89q.worldguard.WorldGuard;
 import com.sk89q.worldguard.protection.managers.RegionManager;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.Tag;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.Sign;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.SignChangeEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.persistence.PersistentDataType;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.logging.Level;
 
 public class SignListener implements Listener {
+    private static final Set<Material> SIGN_MATERIALS = EnumSet.noneOf(Material.class);
+    static {
+        SIGN_MATERIALS.addAll(Tag.SIGNS.getValues());
+    }
+
     private final PlotSigns plugin;
 
     public SignListener(PlotSigns plugin) {
@@ -53,11 +62,17 @@ public class SignListener implements Listener {
             return;
         }
 
-        if (!(event.getClickedBlock().getState() instanceof Sign)) {
+        // Check the material first as getting the block state is expensive
+        if (!SIGN_MATERIALS.contains(event.getClickedBlock().getType())) {
+            return;
+        }
+
+        BlockState state = event.getClickedBlock().getState();
+        if (!(state instanceof Sign)) {
             return;
         }
 
-        Sign sign = (Sign) event.getClickedBlock().getState();
+        Sign sign = (Sign) state;
 
         if (plugin.hasWriteIntent(event.getPlayer().getUniqueId())) {
             // Write sign
@@ -66,19 +81,21 @@ public class SignListener implements Listener {
             plugin.getServer().getPluginManager().callEvent(sce);
             if (!sce.isCancelled()) {
                 sign = (Sign) sce.getBlock().getState();
-                for (int i = 0; i < sce.getLines().length; i++) {
-                    sign.setLine(i, sce.getLine(i));
-                }
-                sign.update();
+                PlotSigns.writeSign(sign, sce.getLines(), null);
                 plugin.removeWriteIntent(event.getPlayer().getUniqueId());
             }
             event.setCancelled(true);
             event.getPlayer().sendMessage(ChatColor.GREEN + "Sign successfully written!");
 
-        } else if (sign.getLines().length > 2 && ChatColor.stripColor(sign.getLine(0)).equalsIgnoreCase(plugin.getSellLine())) {
+        } else if (sign.getLines().length > 2 && plugin.getSettings().isSellLine(sign.getLine(0))) {
             // Buy plot
             event.setCancelled(true);
 
+            if (!plugin.getClickLimiter().tryClick(event.getPlayer().getUniqueId(), event.getClickedBlock())) {
+                // Clicked too fast, drop it before doing any region or economy work
+                return;
+            }
+
             if (!event.getPlayer().hasPermission("plotsigns.sign.purchase")) {
                 event.getPlayer().sendMessage(plugin.getLang("buy.no-permission"));
                 return;
@@ -137,26 +154,36 @@ public class SignListener implements Listener {
                 return;
             }
 
-            try {
-                plugin.buyRegion(event.getPlayer(), region, price, type);
-                event.getPlayer().sendMessage(plugin.getLang("buy.bought-plot", "region", region.getId(), "price", String.valueOf(price)));
-
-                String[] soldLines = plugin.getSignLinesSold(event.getPlayer(), region);
-                for (int i = 0; i < soldLines.length; i++) {
-                    sign.setLine(i, soldLines[i]);
+            Player player = event.getPlayer();
+            Block block = event.getClickedBlock();
+            String signRegionId = regionId;
+            double signPrice = price;
+            plugin.purchaseRegion(player, region, price, type).whenComplete((v, e) -> {
+                if (e != null) {
+                    player.sendMessage(e.getMessage());
+                    return;
                 }
+                player.sendMessage(plugin.getLang("buy.bought-plot", "region", region.getId(), "price", String.valueOf(signPrice)));
 
-                if (!sign.getPersistentDataContainer().has(PlotSigns.SIGN_REGION_KEY, PersistentDataType.STRING)) {
-                    sign.getPersistentDataContainer().set(PlotSigns.SIGN_REGION_KEY, PersistentDataType.STRING, regionId);
+                // The purchase might have been completed later, get the current state of the sign
+                BlockState state = block.getState();
+                if (!(state instanceof Sign)) {
+                    return;
                 }
-                sign.update();
-
-            } catch (PlotSigns.BuyException e) {
-                event.getPlayer().sendMessage(e.getMessage());
-            }
+                Sign soldSign = (Sign) state;
+                // Lines and a missing region binding are written with one update, if anything changed at all
+                PlotSigns.writeSign(soldSign, plugin.getSignLinesSold(player, region),
+                        PlotSigns.getSignRegion(soldSign) == null ? signRegionId : null);
+                plugin.getSignRegistry().add(new SignLocation(block), signRegionId);
+            });
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSignBreak(BlockBreakEvent event) {
+        plugin.getSignRegistry().remove(new SignLocation(event.getBlock()));
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onSignCreate(SignChangeEvent event) {
         if (event.getLine(0).isEmpty() || !event.getLine(0).equalsIgnoreCase(plugin.getSellLine())) {
@@ -164,7 +191,10 @@ public class SignListener implements Listener {
         }
 
         String[] lines = event.getLines();
-        if (handleSignCreation(event.getPlayer(), event.getBlock(), lines)) {
+        long start = System.nanoTime();
+        boolean created = handleSignCreation(event.getPlayer(), event.getBlock(), lines);
+        plugin.getStats().getSignCreate().recordSince(start);
+        if (created) {
             for (int i = 0; i < lines.length; i++) {
                 event.setLine(i, lines[i]);
             }
@@ -195,13 +225,9 @@ public class SignListener implements Listener {
                 return false;
             }
         } else {
-            List<ProtectedRegion> foundRegions = new ArrayList<>(rm.getApplicableRegions(l.toVector().toBlockPoint()).getRegions());
-            if (foundRegions.size() > 1) {
-                foundRegions.sort((r1, r2) -> Integer.compare(r2.getPriority(),r1.getPriority()));
-            }
-            if (foundRegions.size() > 0) {
-                region = foundRegions.get(0);
-            } else {
+            // Not cached as the region might have just been created or changed
+            region = RegionLookup.findHighestPriorityRegion(rm, l.toVector().toBlockPoint());
+            if (region == null) {
                 player.sendMessage(plugin.getLang("create-sign.missing-region"));
                 return false;
             }
@@ -258,7 +284,7 @@ public class SignListener implements Listener {
         try {
             plugin.makeRegionBuyable(region, price, type);
 
-            if (plugin.getConfig().getBoolean("update-all-sell-signs")) {
+            if (plugin.getSettings().isUpdateAllSellSigns()) {
                 plugin.updateSignsInRegion(player, region, false);
             }
         } catch (IllegalArgumentException e) {
@@ -275,8 +301,8 @@ public class SignListener implements Listener {
                 () -> {
                     BlockState state = block.getState();
                     if (state instanceof Sign) {
-                        ((Sign) state).getPersistentDataContainer().set(PlotSigns.SIGN_REGION_KEY, PersistentDataType.STRING, region.getId());
-                        state.update();
+                        PlotSigns.writeSign((Sign) state, null, region.getId());
+                        plugin.getSignRegistry().add(new SignLocation(block), region.getId());
                     }
                 }
         );
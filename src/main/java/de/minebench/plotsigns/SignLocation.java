@@ -0,0 +1,136 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Immutable location of a sign block that doesn't hold a reference to the world
+ */
+public final class SignLocation {
+    private final String world;
+    private final int x;
+    private final int y;
+    private final int z;
+
+    public SignLocation(String world, int x, int y, int z) {
+        this.world = world;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public SignLocation(Block block) {
+        this(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
+    public String getWorld() {
+        return world;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getZ() {
+        return z;
+    }
+
+    public int getChunkX() {
+        return x >> 4;
+    }
+
+    public int getChunkZ() {
+        return z >> 4;
+    }
+
+    /**
+     * Get the block at this location
+     * @param world The world of this location
+     * @return The block
+     */
+    public Block getBlock(World world) {
+        return world.getBlockAt(x, y, z);
+    }
+
+    /**
+     * Serialize this location to a string in the format world,x,y,z
+     * @return The serialized location
+     */
+    public String serialize() {
+        return world + "," + x + "," + y + "," + z;
+    }
+
+    /**
+     * Deserialize a location from a string in the format world,x,y,z
+     * @param string The serialized location
+     * @return The location
+     * @throws IllegalArgumentException if the string is not a valid location
+     */
+    public static SignLocation deserialize(String string) throws IllegalArgumentException {
+        // Parse from the end as the world name might contain commas
+        int zIndex = string.lastIndexOf(',');
+        int yIndex = zIndex > 0 ? string.lastIndexOf(',', zIndex - 1) : -1;
+        int xIndex = yIndex > 0 ? string.lastIndexOf(',', yIndex - 1) : -1;
+        if (xIndex < 1) {
+            throw new IllegalArgumentException("Invalid sign location " + string);
+        }
+        try {
+            return new SignLocation(
+                    string.substring(0, xIndex),
+                    Integer.parseInt(string.substring(xIndex + 1, yIndex)),
+                    Integer.parseInt(string.substring(yIndex + 1, zIndex)),
+                    Integer.parseInt(string.substring(zIndex + 1))
+            );
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sign location " + string, e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SignLocation)) {
+            return false;
+        }
+        SignLocation that = (SignLocation) o;
+        return x == that.x && y == that.y && z == that.z && world.equals(that.world);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = world.hashCode();
+        result = 31 * result + x;
+        result = 31 * result + y;
+        result = 31 * result + z;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
+}
@@ -0,0 +1,375 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Registry of the locations of all sell signs that are bound to a region via the {@link PlotSigns#SIGN_REGION_KEY}
+ */
+public class SignRegistry {
+    private final PlotSigns plugin;
+    private final File file;
+    private final Object fileLock = new Object();
+    /**
+     * Version of the last snapshot that was taken and of the last one that was written,
+     * async writes of older snapshots that run after a newer one are skipped
+     */
+    private final AtomicLong savedVersion = new AtomicLong();
+    private long writtenVersion = 0;
+
+    /**
+     * World name -> region id -> sign locations
+     */
+    private final Map<String, Map<String, Set<SignLocation>>> signs = new ConcurrentHashMap<>();
+
+    /**
+     * Sign location -> region id
+     */
+    private final Map<SignLocation, String> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Regions (world name + space + region id) whose chunks were all searched for signs that aren't in the registry yet
+     */
+    private final Set<String> scannedRegions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Regions (world name + space + region id) -> keys of the chunks that weren't loaded when the region was searched
+     */
+    private final Map<String, Set<Long>> chunksLeft = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> chunk key -> ids of the regions that still need that chunk to be searched
+     */
+    private final Map<String, Map<Long, Set<String>>> chunkRegions = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = false;
+
+    public SignRegistry(PlotSigns plugin) {
+        this(plugin, new File(plugin.getDataFolder(), "signs.yml"));
+    }
+
+    SignRegistry(PlotSigns plugin, File file) {
+        this.plugin = plugin;
+        this.file = file;
+    }
+
+    /**
+     * Load the registry from the disk
+     */
+    public synchronized void load() {
+        signs.clear();
+        regions.clear();
+        scannedRegions.clear();
+        chunksLeft.clear();
+        chunkRegions.clear();
+        if (!file.exists()) {
+            return;
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        for (String entry : config.getStringList("signs")) {
+            // Region IDs can't contain spaces
+            int index = entry.indexOf(' ');
+            if (index < 1) {
+                plugin.getLogger().log(Level.WARNING, "Invalid sign registry entry '" + entry + "'");
+                continue;
+            }
+            try {
+                add(SignLocation.deserialize(entry.substring(index + 1)), entry.substring(0, index));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().log(Level.WARNING, "Invalid sign registry entry '" + entry + "': " + e.getMessage());
+            }
+        }
+        for (String entry : config.getStringList("scanned")) {
+            // Stored as region id + space + world as world names can contain spaces
+            int index = entry.indexOf(' ');
+            if (index > 0) {
+                scannedRegions.add(entry.substring(index + 1) + " " + entry.substring(0, index));
+            }
+        }
+        for (String entry : config.getStringList("chunks-left")) {
+            // Stored as region id + space + chunk x + space + chunk z + space + world
+            String[] parts = entry.split(" ", 4);
+            try {
+                addChunkLeft(parts[3], parts[0], PlotSigns.getChunkKey(Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                plugin.getLogger().log(Level.WARNING, "Invalid chunk left entry '" + entry + "'");
+            }
+        }
+        dirty = false;
+    }
+
+    /**
+     * Write the registry to the disk if it changed
+     * @param async Whether the file should be written asynchronously
+     */
+    public void save(boolean async) {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        YamlConfiguration config = new YamlConfiguration();
+        List<String> entries = new ArrayList<>();
+        for (Map.Entry<SignLocation, String> entry : regions.entrySet()) {
+            entries.add(entry.getValue() + " " + entry.getKey().serialize());
+        }
+        config.set("signs", entries);
+        List<String> scanned = new ArrayList<>();
+        for (String region : scannedRegions) {
+            int index = region.lastIndexOf(' ');
+            scanned.add(region.substring(index + 1) + " " + region.substring(0, index));
+        }
+        config.set("scanned", scanned);
+        List<String> left = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Set<Long>> entry : chunksLeft.entrySet()) {
+                int index = entry.getKey().lastIndexOf(' ');
+                String world = entry.getKey().substring(0, index);
+                String regionId = entry.getKey().substring(index + 1);
+                for (long chunkKey : entry.getValue()) {
+                    left.add(regionId + " " + (int) (chunkKey >> 32) + " " + (int) chunkKey + " " + world);
+                }
+            }
+        }
+        config.set("chunks-left", left);
+        String data = config.saveToString();
+        long version = savedVersion.incrementAndGet();
+        if (async) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(data, version));
+        } else {
+            write(data, version);
+        }
+    }
+
+    private void write(String data, long version) {
+        synchronized (fileLock) {
+            if (version <= writtenVersion) {
+                // A newer snapshot was already written
+                return;
+            }
+            try {
+                PlotSigns.writeFile(file, data);
+                writtenVersion = version;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while saving the sign registry to " + file, e);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Bind a sign to a region
+     * @param location The location of the sign
+     * @param regionId The id of the region
+     */
+    public synchronized void add(SignLocation location, String regionId) {
+        String previous = regions.put(location, regionId);
+        if (regionId.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            removeFromRegion(location, previous);
+        }
+        signs.computeIfAbsent(location.getWorld(), w -> new ConcurrentHashMap<>())
+                .computeIfAbsent(regionId, r -> new HashSet<>())
+                .add(location);
+        dirty = true;
+    }
+
+    /**
+     * Remove a sign from the registry
+     * @param location The location of the sign
+     * @return The id of the region that the sign was bound to or null if there was no sign registered
+     */
+    public synchronized String remove(SignLocation location) {
+        String regionId = regions.remove(location);
+        if (regionId != null) {
+            removeFromRegion(location, regionId);
+            dirty = true;
+        }
+        return regionId;
+    }
+
+    private void removeFromRegion(SignLocation location, String regionId) {
+        Map<String, Set<SignLocation>> worldSigns = signs.get(location.getWorld());
+        if (worldSigns != null) {
+            Set<SignLocation> regionSigns = worldSigns.get(regionId);
+            if (regionSigns != null) {
+                regionSigns.remove(location);
+                if (regionSigns.isEmpty()) {
+                    worldSigns.remove(regionId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the locations of all signs bound to a region
+     * @param world    The name of the world
+     * @param regionId The id of the region
+     * @return A copy of the set of sign locations, empty if none are registered
+     */
+    public synchronized Set<SignLocation> getSigns(String world, String regionId) {
+        Map<String, Set<SignLocation>> worldSigns = signs.get(world);
+        if (worldSigns == null) {
+            return Collections.emptySet();
+        }
+        Set<SignLocation> regionSigns = worldSigns.get(regionId);
+        return regionSigns != null ? new HashSet<>(regionSigns) : Collections.emptySet();
+    }
+
+    /**
+     * Get the ids of all regions that have signs bound to them in a world
+     * @param world The name of the world
+     * @return A copy of the set of region ids
+     */
+    public synchronized Set<String> getRegions(String world) {
+        Map<String, Set<SignLocation>> worldSigns = signs.get(world);
+        return worldSigns != null ? new HashSet<>(worldSigns.keySet()) : Collections.emptySet();
+    }
+
+    /**
+     * Mark a region as searched for signs that were created before the registry existed.
+     * Chunks that couldn't be searched because they weren't loaded are added with {@link #addChunkLeft(String, String, long)}.
+     * @param world    The name of the world
+     * @param regionId The id of the region
+     */
+    public void markScanned(String world, String regionId) {
+        if (scannedRegions.add(world + " " + regionId)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Check whether all chunks of a region were already searched for signs that aren't in the registry
+     * @param world    The name of the world
+     * @param regionId The id of the region
+     * @return Whether the region was completely searched
+     */
+    public boolean isScanned(String world, String regionId) {
+        String key = world + " " + regionId;
+        return scannedRegions.contains(key) && !chunksLeft.containsKey(key);
+    }
+
+    /**
+     * Get the chunks of a region that still have to be searched for signs that aren't in the registry
+     * @param world  The name of the world
+     * @param region The region
+     * @return The keys of the chunks; all chunks of the region if it was never searched, empty if it was completely searched
+     */
+    public synchronized Set<Long> getChunksToScan(String world, ProtectedRegion region) {
+        String key = world + " " + region.getId();
+        Set<Long> chunks = new LinkedHashSet<>();
+        if (!scannedRegions.contains(key)) {
+            PlotSigns.addChunkKeys(region, chunks);
+        } else if (chunksLeft.containsKey(key)) {
+            chunks.addAll(chunksLeft.get(key));
+        }
+        return chunks;
+    }
+
+    /**
+     * Remember that a chunk of a region couldn't be searched for signs because it wasn't loaded
+     * @param world    The name of the world
+     * @param regionId The id of the region
+     * @param chunkKey The key of the chunk
+     */
+    public synchronized void addChunkLeft(String world, String regionId, long chunkKey) {
+        if (chunksLeft.computeIfAbsent(world + " " + regionId, r -> new HashSet<>()).add(chunkKey)) {
+            chunkRegions.computeIfAbsent(world, w -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(chunkKey, c -> new HashSet<>())
+                    .add(regionId);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Check whether any region still needs a chunk to be searched for signs
+     * @param world    The name of the world
+     * @param chunkKey The key of the chunk
+     * @return Whether the chunk needs to be searched
+     */
+    public boolean hasChunkLeft(String world, long chunkKey) {
+        Map<Long, Set<String>> worldChunks = chunkRegions.get(world);
+        return worldChunks != null && worldChunks.containsKey(chunkKey);
+    }
+
+    /**
+     * Remove a chunk that was searched for signs from the chunks that regions still need to be searched
+     * @param world    The name of the world
+     * @param chunkKey The key of the chunk
+     * @return The ids of the regions that were still waiting for that chunk
+     */
+    public synchronized Set<String> removeChunkLeft(String world, long chunkKey) {
+        Map<Long, Set<String>> worldChunks = chunkRegions.get(world);
+        Set<String> regionIds = worldChunks != null ? worldChunks.remove(chunkKey) : null;
+        if (regionIds == null) {
+            return Collections.emptySet();
+        }
+        if (worldChunks.isEmpty()) {
+            chunkRegions.remove(world);
+        }
+        for (String regionId : regionIds) {
+            String key = world + " " + regionId;
+            Set<Long> chunks = chunksLeft.get(key);
+            if (chunks != null) {
+                chunks.remove(chunkKey);
+                if (chunks.isEmpty()) {
+                    chunksLeft.remove(key);
+                }
+            }
+        }
+        dirty = true;
+        return regionIds;
+    }
+
+    /**
+     * Check whether any signs are bound to a region
+     * @param world    The name of the world
+     * @param regionId The id of the region
+     * @return Whether there are signs registered for the region
+     */
+    public synchronized boolean hasSigns(String world, String regionId) {
+        Map<String, Set<SignLocation>> worldSigns = signs.get(world);
+        return worldSigns != null && worldSigns.containsKey(regionId);
+    }
+
+    /**
+     * Get the region that a sign is bound to
+     * @param location The location of the sign
+     * @return The id of the region or null if there is no sign registered at that location
+     */
+    public String getRegion(SignLocation location) {
+        return regions.get(location);
+    }
+}
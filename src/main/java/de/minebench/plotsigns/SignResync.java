@@ -0,0 +1,339 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Background job that compares the signs of all regions in a world with the lines they should show
+ * according to the regions' flags and rewrites the ones that differ. It only uses what the sign update
+ * queue leaves of each tick's budget and its progress is saved so that it continues after a restart.
+ * Only accessed from the main thread.
+ */
+public class SignResync {
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+    private static final int SAVE_INTERVAL = 100;
+
+    private final PlotSigns plugin;
+    private final File file;
+    private final Object fileLock = new Object();
+    /**
+     * Version of the last progress snapshot that was taken and of the last one that was written,
+     * async writes of older snapshots that run after a newer one are skipped
+     */
+    private final AtomicLong savedVersion = new AtomicLong();
+    private long writtenVersion = 0;
+
+    private Job job = null;
+
+    public SignResync(PlotSigns plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "resync.yml");
+    }
+
+    /**
+     * Start a resync of all signs in a world
+     * @param world     The world
+     * @param sender    Who should receive the progress reports
+     * @return false if a resync is already running
+     */
+    public boolean start(World world, CommandSender sender) {
+        if (job != null) {
+            return false;
+        }
+        job = new Job(world.getName(), null, sender);
+        RegionManager rm = plugin.getRegionManager(world);
+        if (rm != null) {
+            job.init(getRegionIds(world.getName(), rm));
+        }
+        sender.sendMessage(plugin.getLang("resync.started", "world", job.world, "total", String.valueOf(job.getTotal())));
+        save(true);
+        return true;
+    }
+
+    /**
+     * Continue a resync that was running when the server stopped
+     */
+    public void resume() {
+        if (job != null || !file.exists()) {
+            return;
+        }
+        YamlConfiguration config = YamlConfiguration.loadConfiguration(file);
+        String world = config.getString("world");
+        if (world == null) {
+            return;
+        }
+        job = new Job(world, config.getString("last-region"), plugin.getServer().getConsoleSender());
+        job.checked = config.getInt("checked");
+        job.rewritten = config.getInt("rewritten");
+        job.orphaned = config.getInt("orphaned");
+        plugin.getLogger().log(Level.INFO, "Resuming sign resync of " + world + (job.resumeAfter != null ? " after region " + job.resumeAfter : ""));
+    }
+
+    /**
+     * Stop the running resync
+     * @return The stopped job or null if none was running
+     */
+    public Job cancel() {
+        Job cancelled = job;
+        job = null;
+        synchronized (fileLock) {
+            // Make sure that progress writes which are still running don't bring the file back
+            writtenVersion = savedVersion.incrementAndGet();
+            if (file.exists() && !file.delete()) {
+                plugin.getLogger().log(Level.WARNING, "Could not delete " + file);
+            }
+        }
+        return cancelled;
+    }
+
+    /**
+     * Save the progress and stop, e.g. when the plugin gets disabled
+     */
+    public void pause() {
+        if (job != null) {
+            save(false);
+        }
+        job = null;
+    }
+
+    /**
+     * @return The running job or null if there is none
+     */
+    public Job getJob() {
+        return job;
+    }
+
+    /**
+     * Check the signs of the next regions
+     * @param budget The time in nanoseconds that can be spent in this tick
+     */
+    public void tick(long budget) {
+        if (job == null || budget <= 0) {
+            return;
+        }
+        World world = plugin.getServer().getWorld(job.world);
+        RegionManager rm = world != null ? plugin.getRegionManager(world) : null;
+        if (rm == null) {
+            // Try again once the world is loaded
+            return;
+        }
+        if (job.regionIds == null) {
+            job.init(getRegionIds(job.world, rm));
+        }
+        long start = System.nanoTime();
+        do {
+            if (job.index >= job.regionIds.size()) {
+                job.getReporter().sendMessage(plugin.getLang("resync.done",
+                        "world", job.world,
+                        "checked", String.valueOf(job.checked),
+                        "rewritten", String.valueOf(job.rewritten),
+                        "orphaned", String.valueOf(job.orphaned)
+                ));
+                cancel();
+                return;
+            }
+            String regionId = job.regionIds.get(job.index++);
+            check(world, rm.getRegion(regionId), regionId);
+            if (job.index % SAVE_INTERVAL == 0) {
+                save(true);
+            }
+        } while (System.nanoTime() - start < budget);
+
+        if (System.nanoTime() - job.lastReport > REPORT_INTERVAL) {
+            job.lastReport = System.nanoTime();
+            job.sendProgress(plugin, job.getReporter());
+        }
+    }
+
+    /**
+     * Get the regions to check: all that have registered signs and the ones with a price
+     * which might still have signs from before the registry existed
+     * @param world The name of the world
+     * @param rm    The world's RegionManager
+     * @return The sorted region ids
+     */
+    private List<String> getRegionIds(String world, RegionManager rm) {
+        Set<String> ids = new HashSet<>(plugin.getSignRegistry().getRegions(world));
+        for (ProtectedRegion region : rm.getRegions().values()) {
+            if (region.getFlag(PlotSigns.PRICE_FLAG) != null && !plugin.getSignRegistry().isScanned(world, region.getId())) {
+                ids.add(region.getId());
+            }
+        }
+        List<String> regionIds = new ArrayList<>(ids);
+        Collections.sort(regionIds);
+        return regionIds;
+    }
+
+    private void check(World world, ProtectedRegion region, String regionId) {
+        String[] lines = region != null ? plugin.getCurrentSignLines(region) : null;
+        if (lines != null && !plugin.getSignRegistry().isScanned(job.world, regionId)) {
+            // Let the update queue search the region's chunks for signs which aren't registered yet, it then
+            // rewrites all signs of the region that differ
+            plugin.getSignUpdateScheduler().schedule(world, region, lines);
+            return;
+        }
+        for (SignLocation location : plugin.getSignRegistry().getSigns(job.world, regionId)) {
+            job.checked++;
+            if (lines == null) {
+                // The region was removed or isn't sold nor buyable, leave the sign alone
+                job.orphaned++;
+                continue;
+            }
+            if (!world.isChunkLoaded(location.getChunkX(), location.getChunkZ())) {
+                // Don't load chunks just to check the sign, write the lines when it gets loaded
+                plugin.getPendingSignUpdates().add(location, regionId, lines);
+                continue;
+            }
+            BlockState state = location.getBlock(world).getState();
+            if (!(state instanceof Sign) || !regionId.equals(PlotSigns.getSignRegion((Sign) state))) {
+                plugin.getSignRegistry().remove(location);
+                continue;
+            }
+            if (!Arrays.equals(((Sign) state).getLines(), lines)) {
+                plugin.getSignUpdateScheduler().schedule(location, new PendingSignUpdates.Update(regionId, lines));
+                job.rewritten++;
+            }
+        }
+    }
+
+    /**
+     * Save the progress of the job
+     * @param async Whether the file should be written asynchronously
+     */
+    private void save(boolean async) {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("world", job.world);
+        config.set("last-region", job.getLastRegion());
+        config.set("checked", job.checked);
+        config.set("rewritten", job.rewritten);
+        config.set("orphaned", job.orphaned);
+        String data = config.saveToString();
+        long version = savedVersion.incrementAndGet();
+        if (async) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> write(data, version));
+        } else {
+            write(data, version);
+        }
+    }
+
+    private void write(String data, long version) {
+        synchronized (fileLock) {
+            if (version <= writtenVersion) {
+                // A newer snapshot was already written or the job was cancelled
+                return;
+            }
+            try {
+                PlotSigns.writeFile(file, data);
+                writtenVersion = version;
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Error while saving the resync progress to " + file, e);
+            }
+        }
+    }
+
+    public static class Job {
+        private final String world;
+        private final CommandSender sender;
+        /**
+         * The region after which a resumed job continues, only used until the region ids are known
+         */
+        private final String resumeAfter;
+        private List<String> regionIds = null;
+        private int index = 0;
+        private int checked = 0;
+        private int rewritten = 0;
+        private int orphaned = 0;
+        private long lastReport = System.nanoTime();
+
+        private Job(String world, String resumeAfter, CommandSender sender) {
+            this.world = world;
+            this.resumeAfter = resumeAfter;
+            this.sender = sender;
+        }
+
+        /**
+         * Set the regions to check once the world's regions are available
+         * @param regionIds The sorted region ids
+         */
+        private void init(List<String> regionIds) {
+            this.regionIds = regionIds;
+            if (resumeAfter != null) {
+                int found = Collections.binarySearch(regionIds, resumeAfter);
+                index = found < 0 ? -found - 1 : found + 1;
+            }
+        }
+
+        private String getLastRegion() {
+            if (regionIds == null) {
+                return resumeAfter;
+            }
+            return index > 0 ? regionIds.get(index - 1) : null;
+        }
+
+        private int getTotal() {
+            return regionIds != null ? regionIds.size() : 0;
+        }
+
+        private CommandSender getReporter() {
+            if (sender instanceof Player && !((Player) sender).isOnline()) {
+                return ((Player) sender).getServer().getConsoleSender();
+            }
+            return sender;
+        }
+
+        /**
+         * Send the current progress of the job
+         * @param plugin    The plugin to get the message from
+         * @param sender    Who to send the progress to
+         */
+        public void sendProgress(PlotSigns plugin, CommandSender sender) {
+            sender.sendMessage(plugin.getLang("resync.progress",
+                    "world", world,
+                    "done", String.valueOf(index),
+                    "total", String.valueOf(getTotal()),
+                    "rewritten", String.valueOf(rewritten)
+            ));
+        }
+
+        public String getWorld() {
+            return world;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import org.bukkit.World;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue of sign updates that is worked through across multiple ticks. Each tick only
+ * gets a limited amount of time so that big regions or many sales at once don't cause lag.
+ * Updates to the same region or sign are merged so only the latest lines get written.
+ * Only accessed from the main thread.
+ */
+public class SignUpdateScheduler {
+    private final PlotSigns plugin;
+
+    /**
+     * World name + region id -> regions whose signs still need to be found
+     */
+    private final Map<String, RegionJob> regions = new LinkedHashMap<>();
+
+    /**
+     * World name + chunk key -> chunks that need to be searched for signs that aren't in the registry yet.
+     * Each chunk is only searched once even if multiple queued regions touch it.
+     */
+    private final Map<String, ChunkScan> chunks = new LinkedHashMap<>();
+
+    /**
+     * Signs that need to be written
+     */
+    private final Map<SignLocation, PendingSignUpdates.Update> signs = new LinkedHashMap<>();
+
+    private long budget = TimeUnit.MILLISECONDS.toNanos(2);
+
+    public SignUpdateScheduler(PlotSigns plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Set how much time can be spent on sign updates per tick
+     * @param budget The time in nanoseconds
+     */
+    public void setBudget(long budget) {
+        this.budget = Math.max(budget, 0);
+    }
+
+    /**
+     * Queue the update of all signs of a region. This replaces any queued update of the region's signs.
+     * @param world     The world of the region
+     * @param region    The region
+     * @param lines     The lines to write
+     */
+    public void schedule(World world, ProtectedRegion region, String[] lines) {
+        String key = world.getName() + " " + region.getId();
+        RegionJob job = regions.get(key);
+        if (job == null) {
+            job = new RegionJob(world.getName(), region.getId());
+            // Look for signs which were created before the registry existed, even if some of the region's signs are known
+            for (long chunkKey : plugin.getSignRegistry().getChunksToScan(world.getName(), region)) {
+                job.chunks.add(chunkKey);
+                getChunkScan(world.getName(), chunkKey).jobs.add(job);
+                job.scanning = true;
+            }
+            regions.put(key, job);
+        }
+        job.lines = lines;
+    }
+
+    /**
+     * Queue the search of a chunk for signs of regions which couldn't be searched completely
+     * before because the chunk wasn't loaded, e.g. when the chunk gets loaded
+     * @param world     The world of the chunk
+     * @param chunkKey  The key of the chunk
+     */
+    public void scheduleScan(World world, long chunkKey) {
+        getChunkScan(world.getName(), chunkKey);
+    }
+
+    private ChunkScan getChunkScan(String world, long chunkKey) {
+        return chunks.computeIfAbsent(world + " " + chunkKey, k -> new ChunkScan(world, chunkKey));
+    }
+
+    /**
+     * Queue the update of a single sign. This replaces any queued update of that sign.
+     * @param location  The location of the sign
+     * @param update    The update
+     */
+    public void schedule(SignLocation location, PendingSignUpdates.Update update) {
+        signs.put(location, update);
+    }
+
+    /**
+     * @return Whether there are no queued updates
+     */
+    public boolean isEmpty() {
+        return regions.isEmpty() && chunks.isEmpty() && signs.isEmpty();
+    }
+
+    /**
+     * Work through the queue until the time budget of this tick is used up
+     * @return The part of the budget in nanoseconds that is left for other sign work in this tick
+     */
+    public long tick() {
+        if (isEmpty()) {
+            return budget;
+        }
+        long start = System.nanoTime();
+        // Always do at least one step so that the queue keeps moving with a tiny budget
+        do {
+            if (!step()) {
+                break;
+            }
+        } while (System.nanoTime() - start < budget);
+        plugin.getStats().getSignUpdate().recordSince(start);
+        return budget - (System.nanoTime() - start);
+    }
+
+    /**
+     * Work through the whole queue regardless of the budget, e.g. when the plugin gets disabled
+     */
+    public void runAll() {
+        while (step()) {
+            // Keep going
+        }
+    }
+
+    /**
+     * Do one unit of work, either scanning a chunk for signs or writing a sign
+     * @return Whether there was anything to do
+     */
+    private boolean step() {
+        Iterator<RegionJob> regionIterator = regions.values().iterator();
+        if (regionIterator.hasNext()) {
+            RegionJob job = regionIterator.next();
+            World world = plugin.getServer().getWorld(job.world);
+            if (world == null) {
+                regionIterator.remove();
+                return true;
+            }
+            Iterator<Long> chunkIterator = job.chunks.iterator();
+            if (chunkIterator.hasNext()) {
+                long chunkKey = chunkIterator.next();
+                chunkIterator.remove();
+                scan(world, chunkKey);
+                return true;
+            }
+            regionIterator.remove();
+            if (job.scanning) {
+                // Chunks that weren't loaded were added to the registry and get searched once they are loaded
+                plugin.getSignRegistry().markScanned(job.world, job.regionId);
+            }
+            PendingSignUpdates.Update update = new PendingSignUpdates.Update(job.regionId, job.lines);
+            for (SignLocation location : plugin.getSignRegistry().getSigns(job.world, job.regionId)) {
+                signs.put(location, update);
+            }
+            return true;
+        }
+
+        Iterator<ChunkScan> scanIterator = chunks.values().iterator();
+        if (scanIterator.hasNext()) {
+            ChunkScan scan = scanIterator.next();
+            World world = plugin.getServer().getWorld(scan.world);
+            if (world != null) {
+                scan(world, scan.chunkKey);
+            } else {
+                scanIterator.remove();
+            }
+            return true;
+        }
+
+        Iterator<Map.Entry<SignLocation, PendingSignUpdates.Update>> signIterator = signs.entrySet().iterator();
+        if (signIterator.hasNext()) {
+            Map.Entry<SignLocation, PendingSignUpdates.Update> entry = signIterator.next();
+            signIterator.remove();
+            World world = plugin.getServer().getWorld(entry.getKey().getWorld());
+            if (world != null) {
+                plugin.updateSign(world, entry.getKey(), entry.getValue().getRegionId(), entry.getValue().getLines());
+            } else {
+                // Write it once the world and the sign's chunk are loaded again
+                plugin.getPendingSignUpdates().add(entry.getKey(), entry.getValue().getRegionId(), entry.getValue().getLines());
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Search a chunk for signs that aren't in the registry yet
+     * @param world     The world of the chunk
+     * @param chunkKey  The key of the chunk
+     */
+    private void scan(World world, long chunkKey) {
+        ChunkScan scan = chunks.remove(world.getName() + " " + chunkKey);
+        int x = (int) (chunkKey >> 32);
+        int z = (int) chunkKey;
+        boolean loaded = world.isChunkLoaded(x, z);
+        if (loaded) {
+            plugin.getStats().getChunksVisited().increment();
+            plugin.getStats().getTileEntitiesInspected().add(PlotSigns.scanChunk(world.getChunkAt(x, z), plugin.getSignRegistry()));
+        }
+        if (scan != null) {
+            for (RegionJob job : scan.jobs) {
+                job.chunks.remove(chunkKey);
+                if (!loaded) {
+                    plugin.getSignRegistry().addChunkLeft(job.world, job.regionId, chunkKey);
+                }
+            }
+        }
+        if (!loaded) {
+            return;
+        }
+        RegionManager rm = null;
+        for (String regionId : plugin.getSignRegistry().removeChunkLeft(world.getName(), chunkKey)) {
+            if (regions.containsKey(world.getName() + " " + regionId)) {
+                // The queued job writes all of the region's signs
+                continue;
+            }
+            // The signs in this chunk were never found before, write the lines that the region's signs should show
+            if (rm == null) {
+                rm = plugin.getRegionManager(world);
+                if (rm == null) {
+                    return;
+                }
+            }
+            ProtectedRegion region = rm.getRegion(regionId);
+            String[] lines = region != null ? plugin.getCurrentSignLines(region) : null;
+            if (lines == null) {
+                continue;
+            }
+            PendingSignUpdates.Update update = new PendingSignUpdates.Update(regionId, lines);
+            for (SignLocation location : plugin.getSignRegistry().getSigns(world.getName(), regionId)) {
+                if (location.getChunkX() == x && location.getChunkZ() == z) {
+                    signs.put(location, update);
+                }
+            }
+        }
+    }
+
+    private static class ChunkScan {
+        private final String world;
+        private final long chunkKey;
+        /**
+         * Regions that wait for this chunk to be searched before their signs are written
+         */
+        private final Set<RegionJob> jobs = new HashSet<>();
+
+        private ChunkScan(String world, long chunkKey) {
+            this.world = world;
+            this.chunkKey = chunkKey;
+        }
+    }
+
+    private static class RegionJob {
+        private final String world;
+        private final String regionId;
+        /**
+         * Keys of the chunks that still need to be searched before the signs are written
+         */
+        private final Set<Long> chunks = new LinkedHashSet<>();
+        private String[] lines;
+        private boolean scanning = false;
+
+        private RegionJob(String world, String regionId) {
+            this.world = world;
+            this.regionId = regionId;
+        }
+    }
+}
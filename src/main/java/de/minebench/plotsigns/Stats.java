@@ -0,0 +1,259 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the plugin's hot paths. Recording is lock-free.
+ */
+public class Stats {
+    private final Map<String, Timer> timers = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+
+    private final Timer buy = timer("buy");
+    private final Timer vaultHas = timer("vault_has");
+    private final Timer vaultWithdraw = timer("vault_withdraw");
+    private final Timer vaultDeposit = timer("vault_deposit");
+    private final Timer typeCount = timer("type_count");
+    private final Timer signUpdate = timer("sign_update");
+    private final Timer signCreate = timer("sign_create");
+    private final Timer lang = timer("lang");
+
+    private final LongAdder chunksVisited = counter("sign_update_chunks_visited");
+    private final LongAdder tileEntitiesInspected = counter("sign_update_tile_entities_inspected");
+    private final LongAdder signsRewritten = counter("sign_update_signs_rewritten");
+    private final LongAdder signsUnchanged = counter("sign_update_signs_unchanged");
+
+    private Timer timer(String name) {
+        Timer timer = new Timer();
+        timers.put(name, timer);
+        return timer;
+    }
+
+    private LongAdder counter(String name) {
+        LongAdder counter = new LongAdder();
+        counters.put(name, counter);
+        return counter;
+    }
+
+    public Timer getBuy() {
+        return buy;
+    }
+
+    public Timer getVaultHas() {
+        return vaultHas;
+    }
+
+    public Timer getVaultWithdraw() {
+        return vaultWithdraw;
+    }
+
+    public Timer getVaultDeposit() {
+        return vaultDeposit;
+    }
+
+    public Timer getTypeCount() {
+        return typeCount;
+    }
+
+    public Timer getSignUpdate() {
+        return signUpdate;
+    }
+
+    public Timer getSignCreate() {
+        return signCreate;
+    }
+
+    public Timer getLang() {
+        return lang;
+    }
+
+    public LongAdder getChunksVisited() {
+        return chunksVisited;
+    }
+
+    public LongAdder getTileEntitiesInspected() {
+        return tileEntitiesInspected;
+    }
+
+    public LongAdder getSignsRewritten() {
+        return signsRewritten;
+    }
+
+    /**
+     * @return The counter of signs that already showed the right lines and didn't need an update
+     */
+    public LongAdder getSignsUnchanged() {
+        return signsUnchanged;
+    }
+
+    /**
+     * Reset all timers and counters
+     */
+    public void reset() {
+        for (Timer timer : timers.values()) {
+            timer.reset();
+        }
+        for (LongAdder counter : counters.values()) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Get a human readable summary of all timers and counters
+     * @return One line per timer and counter
+     */
+    public List<String> getSummary() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            Timer timer = entry.getValue();
+            lines.add(String.format(Locale.ROOT, "%s: count=%d avg=%.3fms p50<=%.3fms p99<=%.3fms max=%.3fms",
+                    entry.getKey(), timer.getCount(), toMillis(timer.getAverage()),
+                    toMillis(timer.getPercentile(0.5)), toMillis(timer.getPercentile(0.99)), toMillis(timer.getMax())));
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            lines.add(entry.getKey() + ": " + entry.getValue().sum());
+        }
+        return lines;
+    }
+
+    /**
+     * Get all timers and counters in the Prometheus text exposition format
+     * @return The formatted stats
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String name = "plotsigns_" + entry.getKey() + "_seconds";
+            Timer timer = entry.getValue();
+            sb.append("# TYPE ").append(name).append(" histogram\n");
+            long cumulative = 0;
+            for (int i = 0; i < Timer.BUCKETS; i++) {
+                cumulative += timer.buckets.get(i);
+                sb.append(name).append("_bucket{le=\"")
+                        .append(i == Timer.BUCKETS - 1 ? "+Inf" : String.format(Locale.ROOT, "%.6f", Timer.getBucketLimit(i) / 1_000_000_000d))
+                        .append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append(name).append("_sum ").append(String.format(Locale.ROOT, "%.6f", timer.total.sum() / 1_000_000_000d)).append('\n');
+            sb.append(name).append("_count ").append(timer.getCount()).append('\n');
+        }
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            String name = "plotsigns_" + entry.getKey() + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Latency histogram with power of two buckets starting at one microsecond
+     */
+    public static class Timer {
+        private static final int BUCKETS = 24;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * Record the duration of a call
+         * @param nanos The duration in nanoseconds
+         */
+        public void record(long nanos) {
+            count.increment();
+            total.add(nanos);
+            long currentMax;
+            while (nanos > (currentMax = max.get()) && !max.compareAndSet(currentMax, nanos)) {
+                // Retry until we either set it or another thread recorded a larger value
+            }
+            long micros = nanos / 1000;
+            int bucket = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+        }
+
+        /**
+         * Record the time since a start time
+         * @param start The start time from {@link System#nanoTime()}
+         */
+        public void recordSince(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getAverage() {
+            long count = getCount();
+            return count > 0 ? total.sum() / count : 0;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Get the upper limit of the bucket that contains a percentile
+         * @param percentile The percentile between 0 and 1
+         * @return The upper limit in nanoseconds
+         */
+        public long getPercentile(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= target) {
+                    return Math.min(getBucketLimit(i), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private static long getBucketLimit(int bucket) {
+            return TimeUnit.MICROSECONDS.toNanos(1L << bucket);
+        }
+
+        private void reset() {
+            count.reset();
+            total.reset();
+            max.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.OfflinePlayer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Collects the taxes of sales for the treasury account and the shares of owners that are offline
+ * and deposits them in one economy call per account when it is flushed. Every amount stays open in
+ * the purchase journal until it was deposited so that nothing is lost if the server stops before that.
+ */
+public class Treasury {
+    /**
+     * Key of the treasury account in the pending amounts
+     */
+    private static final UUID TREASURY_KEY = new UUID(0, 0);
+
+    private final PlotSigns plugin;
+
+    /**
+     * Account -> amounts that weren't deposited yet
+     */
+    private final Map<UUID, Account> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * Transaction id + payee of all queued amounts so that a transaction can't be queued twice
+     */
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private volatile String accountName = null;
+    private volatile OfflinePlayer treasuryAccount = null;
+    private volatile boolean batching = false;
+
+    public Treasury(PlotSigns plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Set up the treasury. Account names are resolved asynchronously as that might require a profile lookup,
+     * taxes stay queued in the journal until the account is known.
+     * @param accountName   The name or UUID of the account that receives the taxes, null or empty to let taxes disappear
+     * @param batching      Whether offline owners and the treasury should be paid in batches
+     */
+    public void setup(String accountName, boolean batching) {
+        if (accountName == null || accountName.isEmpty()) {
+            accountName = null;
+        }
+        this.batching = batching;
+        if (accountName == null ? this.accountName == null : accountName.equals(this.accountName)) {
+            return;
+        }
+        this.accountName = accountName;
+        this.treasuryAccount = null;
+        if (accountName == null) {
+            return;
+        }
+        String name = accountName;
+        try {
+            treasuryAccount = plugin.getServer().getOfflinePlayer(UUID.fromString(name));
+        } catch (IllegalArgumentException e) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+                OfflinePlayer account = plugin.getServer().getOfflinePlayer(name);
+                if (name.equals(this.accountName)) {
+                    treasuryAccount = account;
+                }
+            });
+        }
+    }
+
+    /**
+     * @return Whether taxes are deposited to a treasury account
+     */
+    public boolean isEnabled() {
+        return accountName != null;
+    }
+
+    /**
+     * @return Whether amounts are collected and deposited in batches
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    /**
+     * Queue the share of an owner to be deposited with the next flush
+     * @param transaction   The transaction of the purchase
+     * @param ownerId       The UUID of the owner
+     * @param amount        The share of the owner
+     */
+    public void addPayout(PurchaseJournal.Transaction transaction, UUID ownerId, double amount) {
+        add(ownerId, new Entry(transaction, ownerId, toCents(amount)));
+    }
+
+    /**
+     * Queue the tax of a purchase to be deposited to the treasury with the next flush
+     * @param transaction   The transaction of the purchase
+     * @param amount        The tax
+     */
+    public void addTax(PurchaseJournal.Transaction transaction, double amount) {
+        add(TREASURY_KEY, new Entry(transaction, null, toCents(amount)));
+    }
+
+    private void add(UUID accountId, Entry entry) {
+        if (!queued.add(entry.getKey())) {
+            return;
+        }
+        Account account = accounts.computeIfAbsent(accountId, id -> new Account());
+        account.entries.add(entry);
+        account.cents.add(entry.cents);
+    }
+
+    /**
+     * Deposit an amount to the treasury account directly
+     * @param amount The amount
+     * @return Whether it was deposited
+     */
+    public boolean deposit(double amount) {
+        OfflinePlayer account = getTreasuryAccount();
+        if (account == null) {
+            return false;
+        }
+        if (!plugin.economyDeposit(account, amount).transactionSuccess()) {
+            plugin.getLogger().log(Level.WARNING, "Error while depositing " + amount + " to the treasury account " + accountName);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the amount that is waiting to be deposited to an account
+     * @param playerId The UUID of the player or null for the treasury account
+     * @return The amount
+     */
+    public double getPending(UUID playerId) {
+        Account account = accounts.get(playerId != null ? playerId : TREASURY_KEY);
+        return account != null ? account.cents.sum() / 100.0 : 0;
+    }
+
+    /**
+     * Deposit all queued amounts with one economy call per account. Has to be run on the thread that does the economy calls.
+     */
+    public void flush() {
+        Set<PurchaseJournal.Transaction> settled = new LinkedHashSet<>();
+        for (Map.Entry<UUID, Account> accountEntry : accounts.entrySet()) {
+            List<Entry> batch = new ArrayList<>();
+            Entry entry;
+            long cents = 0;
+            while ((entry = accountEntry.getValue().entries.poll()) != null) {
+                batch.add(entry);
+                cents += entry.cents;
+            }
+            if (batch.isEmpty()) {
+                continue;
+            }
+            accountEntry.getValue().cents.add(-cents);
+
+            boolean success;
+            if (TREASURY_KEY.equals(accountEntry.getKey())) {
+                success = deposit(cents / 100.0);
+            } else {
+                OfflinePlayer owner = plugin.getServer().getOfflinePlayer(accountEntry.getKey());
+                success = plugin.economyDeposit(owner, cents / 100.0).transactionSuccess();
+                if (success) {
+                    plugin.getLogger().log(Level.INFO, owner.getName() + "/" + owner.getUniqueId() + " received " + (cents / 100.0) + " from the sale of " + batch.size() + " regions.");
+                } else {
+                    plugin.getLogger().log(Level.WARNING, "Error while depositing " + (cents / 100.0) + " to " + owner.getName() + "/" + owner.getUniqueId() + ", trying again with the next batch");
+                }
+            }
+
+            if (!success) {
+                for (Entry failed : batch) {
+                    accountEntry.getValue().entries.add(failed);
+                }
+                accountEntry.getValue().cents.add(cents);
+                continue;
+            }
+            for (Entry paid : batch) {
+                if (paid.ownerId != null) {
+                    plugin.getPurchaseJournal().paid(paid.transaction, paid.ownerId);
+                } else {
+                    plugin.getPurchaseJournal().taxed(paid.transaction, paid.cents / 100.0);
+                }
+                queued.remove(paid.getKey());
+                settled.add(paid.transaction);
+            }
+        }
+        for (PurchaseJournal.Transaction transaction : settled) {
+            plugin.settlePurchase(transaction);
+        }
+    }
+
+    /**
+     * @return The treasury account or null if there is none or its name wasn't resolved yet
+     */
+    private OfflinePlayer getTreasuryAccount() {
+        return accountName != null ? treasuryAccount : null;
+    }
+
+    private static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    private static class Account {
+        private final LongAdder cents = new LongAdder();
+        private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+    }
+
+    private static class Entry {
+        private final PurchaseJournal.Transaction transaction;
+        private final UUID ownerId;
+        private final long cents;
+
+        private Entry(PurchaseJournal.Transaction transaction, UUID ownerId, long cents) {
+            this.transaction = transaction;
+            this.ownerId = ownerId;
+            this.cents = cents;
+        }
+
+        private String getKey() {
+            return transaction.getId() + " " + (ownerId != null ? ownerId : "tax");
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Index of the regions of a certain plot type that a player owns in a world.
+ * This is used to check the type count without having to look at every region of the world.
+ */
+public class TypeCountIndex {
+
+    /**
+     * World name -> region id -> indexed state of that region
+     */
+    private final Map<String, Map<String, Entry>> regions = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> owner -> plot type -> ids of the regions
+     */
+    private final Map<String, Map<UUID, Map<String, Set<String>>>> owned = new ConcurrentHashMap<>();
+
+    /**
+     * World name -> ids of the regions that were updated while {@link #reconcile(String, Collection)} scanned the world
+     */
+    private final Map<String, Set<String>> reconciling = new HashMap<>();
+
+    /**
+     * Build the index of a world from scratch
+     * @param world The name of the world
+     * @param rm    The world's RegionManager
+     */
+    public void rebuild(String world, RegionManager rm) {
+        rebuild(world, rm.getRegions().values());
+    }
+
+    /**
+     * Build the index of a world from scratch
+     * @param world   The name of the world
+     * @param regions All regions of the world
+     */
+    public synchronized void rebuild(String world, Collection<ProtectedRegion> regions) {
+        clear(world);
+        for (ProtectedRegion region : regions) {
+            update(world, region);
+        }
+    }
+
+    /**
+     * Remove all indexed data of a world
+     * @param world The name of the world
+     */
+    public synchronized void clear(String world) {
+        regions.remove(world);
+        owned.remove(world);
+        reconciling.remove(world);
+    }
+
+    /**
+     * Compare the index of a world with all its regions to pick up changes that were made outside of the
+     * plugin (e.g. via WorldGuard commands, manual region edits or reloads). The regions are scanned without
+     * holding the lock of the index so this can be run asynchronously, updates that happen during the scan win.
+     * @param world   The name of the world
+     * @param regions All regions of the world
+     */
+    public void reconcile(String world, Collection<ProtectedRegion> regions) {
+        Set<String> touched = ConcurrentHashMap.newKeySet();
+        synchronized (this) {
+            reconciling.put(world, touched);
+        }
+
+        Map<String, Entry> scannedRegions = new ConcurrentHashMap<>();
+        Map<UUID, Map<String, Set<String>>> scannedOwned = new ConcurrentHashMap<>();
+        for (ProtectedRegion region : regions) {
+            Entry entry = createEntry(region);
+            if (entry != null) {
+                add(scannedRegions, scannedOwned, region.getId(), entry);
+            }
+        }
+
+        synchronized (this) {
+            if (!reconciling.remove(world, touched)) {
+                // The world was cleared or another scan was started in the meantime
+                return;
+            }
+            Map<String, Entry> worldRegions = this.regions.getOrDefault(world, Collections.emptyMap());
+            for (String regionId : touched) {
+                remove(scannedRegions, scannedOwned, regionId);
+                Entry entry = worldRegions.get(regionId);
+                if (entry != null) {
+                    add(scannedRegions, scannedOwned, regionId, entry);
+                }
+            }
+            this.regions.put(world, scannedRegions);
+            owned.put(world, scannedOwned);
+        }
+    }
+
+    /**
+     * Update the indexed state of a region after its owners or type changed
+     * @param world  The name of the world the region is in
+     * @param region The region
+     */
+    public synchronized void update(String world, ProtectedRegion region) {
+        remove(world, region.getId());
+
+        Entry entry = createEntry(region);
+        if (entry != null) {
+            add(regions.computeIfAbsent(world, w -> new ConcurrentHashMap<>()),
+                    owned.computeIfAbsent(world, w -> new ConcurrentHashMap<>()), region.getId(), entry);
+        }
+    }
+
+    /**
+     * Remove a region from the index
+     * @param world    The name of the world the region is in
+     * @param regionId The id of the region
+     */
+    public synchronized void remove(String world, String regionId) {
+        Set<String> touched = reconciling.get(world);
+        if (touched != null) {
+            touched.add(regionId);
+        }
+        Map<String, Entry> worldRegions = regions.get(world);
+        Map<UUID, Map<String, Set<String>>> worldOwned = owned.get(world);
+        if (worldRegions != null && worldOwned != null) {
+            remove(worldRegions, worldOwned, regionId);
+        }
+    }
+
+    private static Entry createEntry(ProtectedRegion region) {
+        String type = region.getFlag(PlotSigns.PLOT_TYPE_FLAG);
+        if (type == null || type.isEmpty() || region.getOwners().size() == 0) {
+            return null;
+        }
+        return new Entry(type, new HashSet<>(region.getOwners().getUniqueIds()));
+    }
+
+    private static void add(Map<String, Entry> worldRegions, Map<UUID, Map<String, Set<String>>> worldOwned, String regionId, Entry entry) {
+        worldRegions.put(regionId, entry);
+        for (UUID ownerId : entry.owners) {
+            worldOwned.computeIfAbsent(ownerId, o -> new HashMap<>())
+                    .computeIfAbsent(entry.type, t -> new HashSet<>())
+                    .add(regionId);
+        }
+    }
+
+    private static void remove(Map<String, Entry> worldRegions, Map<UUID, Map<String, Set<String>>> worldOwned, String regionId) {
+        Entry entry = worldRegions.remove(regionId);
+        if (entry == null) {
+            return;
+        }
+        for (UUID ownerId : entry.owners) {
+            Map<String, Set<String>> types = worldOwned.get(ownerId);
+            if (types != null) {
+                Set<String> ids = types.get(entry.type);
+                if (ids != null) {
+                    ids.remove(regionId);
+                    if (ids.isEmpty()) {
+                        types.remove(entry.type);
+                    }
+                }
+                if (types.isEmpty()) {
+                    worldOwned.remove(ownerId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the amount of regions of a type a player owns according to the index
+     * @param world    The name of the world
+     * @param playerId The UUID of the player
+     * @param type     The plot type
+     * @return The amount of regions
+     */
+    public synchronized int getCount(String world, UUID playerId, String type) {
+        return getRegionIds(world, playerId, type).size();
+    }
+
+    /**
+     * Check the regions that are indexed for a player again, e.g. when the count seems to be over the limit.
+     * This only looks at the player's indexed regions, regions that the player got outside of the plugin
+     * are picked up by {@link #reconcile(String, Collection)}.
+     * @param world    The name of the world
+     * @param regions  Gets the current region of the world by its id, e.g. {@link RegionManager#getRegion(String)}
+     * @param playerId The UUID of the player
+     * @param type     The plot type
+     * @return The amount of regions of that type that the player owns after the check
+     */
+    public synchronized int verify(String world, Function<String, ProtectedRegion> regions, UUID playerId, String type) {
+        Map<String, Set<String>> types = owned.getOrDefault(world, Collections.emptyMap()).get(playerId);
+        if (types != null) {
+            List<String> regionIds = new ArrayList<>();
+            for (Set<String> ids : types.values()) {
+                regionIds.addAll(ids);
+            }
+            for (String regionId : regionIds) {
+                ProtectedRegion region = regions.apply(regionId);
+                if (region != null) {
+                    update(world, region);
+                } else {
+                    remove(world, regionId);
+                }
+            }
+        }
+        return getCount(world, playerId, type);
+    }
+
+    private Set<String> getRegionIds(String world, UUID playerId, String type) {
+        Map<UUID, Map<String, Set<String>>> worldOwned = owned.get(world);
+        if (worldOwned == null) {
+            return Collections.emptySet();
+        }
+        Map<String, Set<String>> types = worldOwned.get(playerId);
+        if (types == null) {
+            return Collections.emptySet();
+        }
+        Set<String> ids = types.get(type);
+        return ids != null ? ids : Collections.emptySet();
+    }
+
+    private static class Entry {
+        private final String type;
+        private final Set<UUID> owners;
+
+        private Entry(String type, Set<UUID> owners) {
+            this.type = type;
+            this.owners = owners;
+        }
+    }
+}
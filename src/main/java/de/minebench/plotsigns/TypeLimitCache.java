@@ -0,0 +1,142 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the maximum amount of regions of a type that players are allowed to own
+ * as resolved from their permissions. Safe to use from multiple threads.
+ */
+public class TypeLimitCache {
+
+    /**
+     * The limit of players that can own an unlimited amount of regions of a type
+     */
+    public static final int UNLIMITED = -1;
+
+    /**
+     * Permission nodes per type and type-counts.max-number
+     */
+    private final Map<String, TypeNodes> nodes = new ConcurrentHashMap<>();
+    private final Map<UUID, PlayerLimits> limits = new ConcurrentHashMap<>();
+    private volatile long duration = TimeUnit.SECONDS.toNanos(60);
+
+    /**
+     * Set how long resolved limits are kept. This is needed as permission plugins don't
+     * tell us when a player's permissions changed.
+     * @param duration The duration in seconds
+     */
+    public void setDuration(long duration) {
+        this.duration = TimeUnit.SECONDS.toNanos(duration);
+    }
+
+    /**
+     * Get the maximum amount of regions of a type that a player can own
+     * @param player    The player
+     * @param type      The plot type
+     * @param settings  The settings to use for the type groups and max number
+     * @return The amount of regions or {@link #UNLIMITED}
+     */
+    public int getLimit(Player player, String type, Settings settings) {
+        long now = System.nanoTime();
+        PlayerLimits playerLimits = limits.get(player.getUniqueId());
+        if (playerLimits == null || playerLimits.expires - now < 0) {
+            playerLimits = new PlayerLimits(now + duration);
+            limits.put(player.getUniqueId(), playerLimits);
+        }
+        Integer limit = playerLimits.limits.get(type);
+        if (limit == null) {
+            limit = resolve(player, type, settings);
+            playerLimits.limits.put(type, limit);
+        }
+        return limit;
+    }
+
+    private int resolve(Player player, String type, Settings settings) {
+        TypeNodes typeNodes = nodes.get(type);
+        if (typeNodes == null || typeNodes.counts.length != settings.getTypeCountMaxNumber() + 1) {
+            typeNodes = new TypeNodes(type, settings.getTypeCountMaxNumber());
+            nodes.put(type, typeNodes);
+        }
+
+        if (player.hasPermission(typeNodes.unlimited) || player.hasPermission(typeNodes.groupUnlimited)) {
+            return UNLIMITED;
+        }
+
+        Integer groupAmount = settings.getTypeGroupAmount(type);
+        if (groupAmount != null && player.hasPermission(typeNodes.group)) {
+            return groupAmount;
+        }
+
+        for (int i = typeNodes.counts.length - 1; i >= 0; i--) {
+            if (player.hasPermission(typeNodes.counts[i])) {
+                return i;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Remove the cached limits of a player, e.g. after their permissions changed
+     * @param playerId The UUID of the player
+     */
+    public void invalidate(UUID playerId) {
+        limits.remove(playerId);
+    }
+
+    /**
+     * Remove all cached limits
+     */
+    public void clear() {
+        limits.clear();
+        nodes.clear();
+    }
+
+    private static class PlayerLimits {
+        private final long expires;
+        private final Map<String, Integer> limits = new ConcurrentHashMap<>();
+
+        private PlayerLimits(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    private static class TypeNodes {
+        private final String unlimited;
+        private final String group;
+        private final String groupUnlimited;
+        private final String[] counts;
+
+        private TypeNodes(String type, int maxNumber) {
+            unlimited = ("plotsigns.type." + type + ".unlimited").intern();
+            group = ("plotsigns.group." + type).intern();
+            groupUnlimited = (group + ".unlimited").intern();
+            counts = new String[Math.max(maxNumber, 0) + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = ("plotsigns.type." + type + "." + i).intern();
+            }
+        }
+    }
+}
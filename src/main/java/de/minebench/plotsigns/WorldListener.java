@@ -0,0 +1,63 @@
+package de.minebench.plotsigns;
+
+/*
+ * PlotSigns
+ * Copyright (C) 2018 Max Lee aka Phoenix616 (mail@moep.tv)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import java.util.Map;
+
+public class WorldListener implements Listener {
+    private final PlotSigns plugin;
+
+    public WorldListener(PlotSigns plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        // WorldGuard loads the regions of the world on normal priority
+        plugin.indexWorld(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Map<SignLocation, PendingSignUpdates.Update> updates = plugin.getPendingSignUpdates().drain(event.getChunk());
+        if (updates != null) {
+            // Written by the scheduler in a later tick, blocks shouldn't be changed while the chunk is still being loaded
+            updates.forEach(plugin.getSignUpdateScheduler()::schedule);
+        }
+        long chunkKey = PlotSigns.getChunkKey(event.getChunk().getX(), event.getChunk().getZ());
+        if (plugin.getSignRegistry().hasChunkLeft(event.getWorld().getName(), chunkKey)) {
+            // Regions whose signs couldn't be searched completely before because this chunk wasn't loaded
+            plugin.getSignUpdateScheduler().scheduleScan(event.getWorld(), chunkKey);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        plugin.getTypeCountIndex().clear(event.getWorld().getName());
+        plugin.getMarketIndex().clear(event.getWorld().getName());
+        plugin.getRegionLookup().clear(event.getWorld().getName());
+    }
+}